@@ -3,6 +3,8 @@ package nachos.network;
 import nachos.machine.*;
 import nachos.threads.*;
 
+import java.util.Collection;
+
 /**
  * A collection of message queues, one for each local port. A
  * <tt>PostOffice</tt> interacts directly with the network hardware. Because
@@ -13,11 +15,17 @@ import nachos.threads.*;
  * The post office uses a "postal worker" thread to wait for messages to arrive
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
- * with a <tt>SynchList</tt>) is protected by a lock.
+ * with a <tt>BoundedSynchList</tt>) is protected by a lock.
+ *
+ * <p>
+ * Each queue holds at most <tt>queueCapacity</tt> messages. A message that
+ * arrives for a full queue is dropped, just as if the network had lost it,
+ * rather than stalling delivery to every other port.
  */
 public class PostOffice {
     /**
-     * Allocate a new post office, using an array of <tt>SynchList</tt>s.
+     * Allocate a new post office, using an array of
+     * <tt>BoundedSynchList</tt>s.
      * Register the interrupt handlers with the network hardware and start the
      * "postal worker" thread.
      */
@@ -26,9 +34,9 @@ public class PostOffice {
 	messageSent = new Semaphore(0);
 	sendLock = new Lock();
 
-	queues = new SynchList[MailMessage.portLimit];
+	queues = new BoundedSynchList[MailMessage.portLimit];
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new BoundedSynchList(queueCapacity);
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -66,6 +74,26 @@ public class PostOffice {
 	return mail;
     }
 
+    /**
+     * Retrieve up to <i>max</i> messages on the specified port, waiting until
+     * at least one has arrived. The messages are added to <i>mail</i> in the
+     * order they arrived.
+     *
+     * @param	port	the port on which to wait for messages.
+     * @param	mail	the collection to add the messages to.
+     * @param	max	the maximum number of messages to retrieve.
+     *
+     * @return	the number of messages received.
+     */
+    public int receive(int port, Collection<Object> mail, int max) {
+	Lib.assertTrue(port >= 0 && port < queues.length);
+	Lib.assertTrue(max > 0);
+
+	mail.add(queues[port].removeFirst());
+
+	return 1 + queues[port].drainTo(mail, max-1);
+    }
+
     /**
      * Wait for incoming messages, and then put them in the correct mailbox.
      */
@@ -89,7 +117,9 @@ public class PostOffice {
 				   + ": " + mail);
 
 	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    if (!queues[mail.dstPort].tryAdd(mail))
+		Lib.debug(dbgNet, "mailbox full, dropping mail to port "
+			  + mail.dstPort);
 	}
     }
 
@@ -125,7 +155,9 @@ public class PostOffice {
 	messageSent.V();
     }
 
-    private SynchList[] queues;
+    private BoundedSynchList[] queues;
+    /** The number of messages each port can hold before dropping mail. */
+    private static final int queueCapacity = 64;
     private Semaphore messageReceived;	// V'd when a message can be dequeued
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
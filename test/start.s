@@ -67,3 +67,9 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(dup, syscallDup)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(ringSetup, syscallRingSetup)
+	SYSCALLSTUB(ringEnter, syscallRingEnter)
+	SYSCALLSTUB(joinAny, syscallJoinAny)
@@ -25,6 +25,12 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallDup		13
+#define syscallReadv		14
+#define syscallWritev		15
+#define syscallRingSetup	16
+#define syscallRingEnter	17
+#define syscallJoinAny		18
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -109,6 +115,20 @@ int exec(char *file, int argc, char *argv[]);
  */
 int join(int processID, int *status);
 
+/**
+ * Suspend execution of the current process until any of its child processes
+ * has exited, and join with that child as join() would. If some children have
+ * already exited, returns immediately with the one that exited first.
+ *
+ * The process ID of the child is stored where processID points, and its exit
+ * status where status points.
+ *
+ * If the child exited normally, returns 1. If the child exited as a result of
+ * an unhandled exception, returns 0. If the current process has no children
+ * that it has not already joined, returns -1.
+ */
+int joinAny(int *processID, int *status);
+
 /* FILE MANAGEMENT SYSCALLS: creat, open, read, write, close, unlink
  *
  * A file descriptor is a small, non-negative integer that refers to a file on
@@ -181,6 +201,98 @@ int read(int fileDescriptor, void *buffer, int count);
  */
 int write(int fileDescriptor, void *buffer, int count);
 
+/* One buffer of a readv() or writev() call. */
+struct iovec {
+  void *base;	/* the first byte of the buffer */
+  int length;	/* the number of bytes in the buffer */
+};
+
+/**
+ * Read into count buffers in order, as if by one read() per buffer, but with
+ * a single system call. iov points to an array of count iovec structures. A
+ * buffer is filled completely before the next is started. At most 1024
+ * buffers can be given.
+ *
+ * Returns the total number of bytes read, which is smaller than the total
+ * length of the buffers if the end of the file was reached. On error, -1 is
+ * returned, in the same cases as for read().
+ */
+int readv(int fileDescriptor, struct iovec *iov, int count);
+
+/**
+ * Write count buffers in order, as if by one write() per buffer, but with a
+ * single system call. iov points to an array of count iovec structures. At
+ * most 1024 buffers can be given.
+ *
+ * Returns the total number of bytes written. As for write(), it is an error
+ * if this is smaller than the total length of the buffers, and -1 is returned
+ * on error.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int count);
+
+/* The header of a submission or completion ring. The slots follow it
+ * directly in memory. Entry i of a ring is in slot i % entries, and head and
+ * tail count up without wrapping at the ring size. A ring is empty when head
+ * equals tail.
+ */
+struct ring {
+  int head;	/* the next entry to be consumed */
+  int tail;	/* the next entry to be produced */
+};
+
+/* A system call queued on a submission ring. syscall is the number of one of
+ * creat, open, read, write, close, unlink, dup, readv or writev, and
+ * arguments holds its arguments. userData is copied to the completion.
+ */
+struct ringSubmission {
+  int syscall;
+  int arguments[3];
+  int userData;
+};
+
+/* The result of a submission, posted on a completion ring. */
+struct ringCompletion {
+  int userData;	/* copied from the submission */
+  int result;	/* the value the system call returned */
+};
+
+/**
+ * Set up a submission ring at sq and a completion ring at cq, each with room
+ * for entries entries (at most 256). sq must be followed by entries struct
+ * ringSubmissions, and cq by entries struct ringCompletions. Both rings are
+ * reset to empty.
+ *
+ * The process queues system calls by filling submission slots and then
+ * advancing the submission tail. It consumes results by reading completion
+ * slots and then advancing the completion head. The kernel advances the
+ * other two indices. A process can set up only one pair of rings.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int ringSetup(struct ring *sq, struct ring *cq, int entries);
+
+/**
+ * Have the kernel start on every system call queued on the submission ring.
+ * They are carried out in order while the process continues, and each result
+ * is posted on the completion ring as soon as the call finishes. A full
+ * completion ring holds up the submission ring until ringEnter() is called
+ * again.
+ *
+ * ringEnter() waits until at least minComplete results are on the completion
+ * ring, or until no queued call remains that could add one. With a
+ * minComplete of 0 it does not wait, and the process can poll the completion
+ * ring instead.
+ *
+ * Only creat, open, read, write, close, unlink, dup, readv and writev may be
+ * queued. Reads and writes on a stream, such as the console, are refused with
+ * a result of -1, since the kernel could not end the process while one was
+ * waiting; make those calls directly.
+ *
+ * Returns the number of results on the completion ring, or -1 if an error
+ * occurred.
+ */
+int ringEnter(int minComplete);
+
 /**
  * Close a file descriptor, so that it no longer refers to any file or stream
  * and may be reused.
@@ -200,6 +312,15 @@ int write(int fileDescriptor, void *buffer, int count);
  */
 int close(int fileDescriptor);
 
+/**
+ * Return the lowest unused file descriptor, made to refer to the same open
+ * file as fileDescriptor. The two descriptors share the file's position, and
+ * the file stays open until both have been closed.
+ *
+ * Returns the new file descriptor, or -1 if an error occurred.
+ */
+int dup(int fileDescriptor);
+
 /**
  * Delete a file from the file system. If no processes have the file open, the
  * file is deleted immediately and the space it was using is made available for
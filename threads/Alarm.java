@@ -38,12 +38,21 @@ public class Alarm {
 	
 		if (currentTime>=alarmQueue.peek().getfirst()){
 			AlarmTuple temp=alarmQueue.poll();
-			((KThread) temp.getsecond()).ready();
+			KThread thread=(KThread) temp.getsecond();
+			//a timed wait only wakes the thread if it is still waiting
+			if (temp.queue==null){
+				thread.ready();
+			}
+			else if (temp.queue.removeWaiter(thread)){
+				temp.timedOut=true;
+				thread.ready();
+			}
 			}
 		else{
 			break;
 			}
 	}
+		ThreadedKernel.scheduler.preemptingThread(KThread.currentThread());
 		KThread.currentThread().yield();
 	
 	
@@ -76,6 +85,35 @@ public class Alarm {
 	Machine.interrupt().restore(intStatus);
 	
     }
+
+    /**
+     * Put the current thread to sleep on <i>queue</i> for at most <i>x</i>
+     * ticks. The caller must have disabled interrupts and already called
+     * <tt>queue.waitForAccess()</tt> for the current thread. If the thread is
+     * still on the queue in the first timer interrupt after the time is up,
+     * the interrupt handler takes it off the queue and wakes it. Otherwise
+     * whoever took it off the queue wakes it as usual, and the pending
+     * timeout is dropped.
+     *
+     * @param	queue	the queue the current thread is waiting on.
+     * @param	x	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the thread was woken through the queue, or
+     *		<tt>false</tt> if it timed out.
+     */
+    public boolean waitOn(ThreadQueue queue, long x) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	AlarmTuple timeout=new AlarmTuple(Machine.timer().getTime() + x, KThread.currentThread());
+	timeout.queue=queue;
+	alarmQueue.add(timeout);
+	KThread.sleep();
+
+	if (timeout.timedOut)
+		return false;
+
+	alarmQueue.remove(timeout);
+	return true;
+    }
     
     
    
@@ -87,6 +125,9 @@ public class Alarm {
     private class AlarmTuple<Long, KThread> implements Comparable<AlarmTuple>{ 
     	  private long first; 
     	  private KThread second; 
+    	  //set for a timed wait: the queue to take the thread off on timeout
+    	  private ThreadQueue queue=null;
+    	  private boolean timedOut=false;
     	  public AlarmTuple(long x, KThread y) { 
     	    this.first = x; 
     	    this.second = y; 
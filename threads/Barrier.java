@@ -0,0 +1,112 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>Barrier</tt> makes a fixed number of threads wait for each other.
+ * Each thread calls <tt>await()</tt>; the first <tt>parties - 1</tt> callers
+ * wait, and the last one to arrive releases all of them at once with a
+ * single <tt>ThreadQueue.readyAll()</tt>, rather than one wakeup per waiter.
+ * The barrier then resets, so it can be used again by the same threads.
+ *
+ * <p>
+ * A barrier can optionally be given an <i>owner</i>: a thread the others
+ * depend on to arrive, such as a coordinator that prepares each round.
+ * Waiting threads then donate their priority to the owner, as they would to
+ * the holder of a <tt>Lock</tt>.
+ */
+public class Barrier {
+    /**
+     * Allocate a new barrier that does not transfer priority.
+     *
+     * @param	parties	the number of threads that must call
+     *			<tt>await()</tt> before any of them returns.
+     */
+    public Barrier(int parties) {
+        this(parties, null);
+    }
+
+    /**
+     * Allocate a new barrier whose waiters donate priority to
+     * <i>owner</i>.
+     *
+     * @param	parties	the number of threads that must call
+     *			<tt>await()</tt> before any of them returns.
+     * @param	owner	the thread to donate priority to, or <tt>null</tt>
+     *			for no donation.
+     */
+    public Barrier(int parties, KThread owner) {
+        Lib.assertTrue(parties > 0);
+
+        this.parties = parties;
+        this.owner = owner;
+        waitQueue = ThreadedKernel.scheduler.newThreadQueue(owner != null);
+        setOwner();
+    }
+
+    /**
+     * Wait until <tt>parties</tt> threads have called <tt>await()</tt>.
+     *
+     * @return	the order in which the current thread arrived: 0 for the
+     *		first thread, and <tt>parties - 1</tt> for the thread that
+     *		released the others.
+     */
+    public int await() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        int index = arrived++;
+        if (arrived == parties) {
+            arrived = 0;
+            generation++;
+            waitQueue.readyAll();
+            setOwner();
+        }
+        else {
+            waitQueue.waitForAccess(KThread.currentThread());
+            KThread.sleep();
+        }
+
+        Machine.interrupt().restore(intStatus);
+
+        return index;
+    }
+
+    /**
+     * Return the number of threads waiting at the barrier.
+     *
+     * @return	the number of threads that have arrived in this round.
+     */
+    public int getNumWaiting() {
+        return arrived;
+    }
+
+    /**
+     * Return the number of times the barrier has released its waiters.
+     *
+     * @return	the number of completed rounds.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    private void setOwner() {
+        if (owner != null) {
+            boolean intStatus = Machine.interrupt().disable();
+            waitQueue.acquire(owner);
+            Machine.interrupt().restore(intStatus);
+        }
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        BarrierTest.runall();
+    }
+
+    private int parties;
+    private int arrived = 0;
+    private int generation = 0;
+    private KThread owner;
+    private ThreadQueue waitQueue;
+}
@@ -0,0 +1,241 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the Barrier and CountDownLatch classes, plus a benchmark
+ * comparing <tt>Barrier</tt> with a barrier built from semaphores.
+ */
+public class BarrierTest {
+    /**
+     * Check that no thread leaves a round of the barrier before every thread
+     * has arrived, over several rounds, and that each round hands out every
+     * arrival index once.
+     */
+    public static boolean test1() {
+        final int parties = 5;
+        final int rounds = 3;
+        final Barrier barrier = new Barrier(parties);
+        final int[] arrivals = new int[1];
+        final boolean[] early = new boolean[1];
+        final int[] indexSum = new int[rounds];
+
+        KThread[] threads = new KThread[parties];
+        for (int i=0; i<parties; i++) {
+            threads[i] = new KThread(new Runnable() {
+                public void run() {
+                    for (int r=0; r<rounds; r++) {
+                        arrivals[0]++;
+                        KThread.yield();
+                        int index = barrier.await();
+                        indexSum[r] += index;
+                        if (arrivals[0] < parties * (r+1))
+                            early[0] = true;
+                    }
+                }
+            }).setName("barrier party " + i);
+            threads[i].fork();
+        }
+        for (int i=0; i<parties; i++)
+            threads[i].join();
+
+        boolean indicesOk = true;
+        for (int r=0; r<rounds; r++)
+            indicesOk = indicesOk && indexSum[r] == parties*(parties-1)/2;
+
+        return !early[0] && indicesOk && barrier.getGeneration() == rounds
+            && barrier.getNumWaiting() == 0;
+    }
+
+    /**
+     * Check that a latch holds every waiter until the last
+     * <tt>countDown()</tt>, then stays open, and that a timed wait on a
+     * closed latch times out.
+     */
+    public static boolean test2() {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final int[] released = new int[1];
+
+        KThread[] waiters = new KThread[4];
+        for (int i=0; i<waiters.length; i++) {
+            waiters[i] = new KThread(new Runnable() {
+                public void run() {
+                    latch.await();
+                    released[0]++;
+                }
+            }).setName("latch waiter " + i);
+            waiters[i].fork();
+        }
+
+        if (latch.await(300))
+            return false;
+
+        for (int i=0; i<2; i++) {
+            latch.countDown();
+            KThread.yield();
+        }
+        boolean held = (released[0] == 0 && latch.getCount() == 1);
+
+        latch.countDown();
+        latch.countDown();
+        for (int i=0; i<waiters.length; i++)
+            waiters[i].join();
+
+        return held && released[0] == waiters.length
+            && latch.getCount() == 0 && latch.await(0);
+    }
+
+    /**
+     * Check that threads waiting on a latch donate priority to its owner
+     * until it opens. Only meaningful under <tt>PriorityScheduler</tt>.
+     */
+    public static boolean test3() {
+        final CountDownLatch[] latch = new CountDownLatch[1];
+        final Semaphore go = new Semaphore(0);
+
+        KThread owner = new KThread(new Runnable() {
+            public void run() {
+                go.P();
+                latch[0].countDown();
+            }
+        }).setName("latch owner");
+        latch[0] = new CountDownLatch(1, owner);
+
+        KThread waiter = new KThread(new Runnable() {
+            public void run() {
+                latch[0].await();
+            }
+        }).setName("high latch waiter");
+
+        boolean intStatus = Machine.interrupt().disable();
+        ThreadedKernel.scheduler.setPriority(waiter,
+                                             PriorityScheduler.priorityMaximum);
+        Machine.interrupt().restore(intStatus);
+
+        owner.fork();
+        waiter.fork();
+        KThread.yield();
+
+        intStatus = Machine.interrupt().disable();
+        int donated = ThreadedKernel.scheduler.getEffectivePriority(owner);
+        Machine.interrupt().restore(intStatus);
+
+        go.V();
+        waiter.join();
+        owner.join();
+
+        intStatus = Machine.interrupt().disable();
+        int after = ThreadedKernel.scheduler.getEffectivePriority(owner);
+        Machine.interrupt().restore(intStatus);
+
+        return donated == PriorityScheduler.priorityMaximum
+            && after == PriorityScheduler.priorityDefault;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        if (ThreadedKernel.scheduler instanceof PriorityScheduler)
+            Lib.assertTrue(test3());
+        Lib.debug(dbgBarrier, "[ BARRIER TESTS ]: PASSED");
+    }
+
+    /**
+     * A reusable barrier built from semaphores, the way the older tests
+     * build one: a counter guarded by a semaphore, and two turnstiles that
+     * the last thread in or out signals once for each waiter. The second
+     * turnstile keeps a fast thread from taking a wakeup meant for a slow
+     * thread still leaving the previous round.
+     */
+    private static class SemaphoreBarrier {
+        SemaphoreBarrier(int parties) {
+            this.parties = parties;
+        }
+
+        void await() {
+            mutex.P();
+            boolean last = (++count == parties);
+            if (last) {
+                for (int i=0; i<parties-1; i++)
+                    turnstileIn.V();
+            }
+            mutex.V();
+            if (!last)
+                turnstileIn.P();
+
+            mutex.P();
+            last = (--count == 0);
+            if (last) {
+                for (int i=0; i<parties-1; i++)
+                    turnstileOut.V();
+            }
+            mutex.V();
+            if (!last)
+                turnstileOut.P();
+        }
+
+        int parties;
+        int count = 0;
+        Semaphore mutex = new Semaphore(1);
+        Semaphore turnstileIn = new Semaphore(0);
+        Semaphore turnstileOut = new Semaphore(0);
+    }
+
+    /**
+     * Run the same number of rounds of a barrier among the same threads
+     * with <tt>SemaphoreBarrier</tt> and with <tt>Barrier</tt>, and print
+     * the ticks and context switches each took.
+     */
+    public static void benchmark() {
+        final int parties = 8;
+        final int rounds = 50;
+
+        final SemaphoreBarrier semBarrier = new SemaphoreBarrier(parties);
+        long[] result = measure(parties, new Runnable() {
+            public void run() {
+                for (int r=0; r<rounds; r++)
+                    semBarrier.await();
+            }
+        });
+        report("Semaphore barrier", parties, rounds, result);
+
+        final Barrier barrier = new Barrier(parties);
+        result = measure(parties, new Runnable() {
+            public void run() {
+                for (int r=0; r<rounds; r++)
+                    barrier.await();
+            }
+        });
+        report("Barrier", parties, rounds, result);
+    }
+
+    private static long[] measure(int parties, Runnable body) {
+        long startTicks = Machine.timer().getTime();
+        int startSwitches = KThread.getNumContextSwitches();
+
+        KThread[] threads = new KThread[parties];
+        for (int i=0; i<parties; i++) {
+            threads[i] = new KThread(body).setName("bench party " + i);
+            threads[i].fork();
+        }
+        for (int i=0; i<parties; i++)
+            threads[i].join();
+
+        return new long[] {
+            Machine.timer().getTime() - startTicks,
+            KThread.getNumContextSwitches() - startSwitches
+        };
+    }
+
+    private static void report(String what, int parties, int rounds,
+                               long[] result) {
+        System.out.println("[ BENCH ] " + what + ": " + rounds + " rounds of "
+                           + parties + " threads in " + result[0]
+                           + " ticks (" + (result[0] / rounds)
+                           + " per round), " + result[1]
+                           + " context switches");
+    }
+
+    private static final char dbgBarrier = 'x';
+}
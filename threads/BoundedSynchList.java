@@ -0,0 +1,182 @@
+package nachos.threads;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import nachos.machine.*;
+
+/**
+ * A synchronized queue with a fixed capacity. Unlike <tt>SynchList</tt>,
+ * <tt>add()</tt> waits while the queue is full, so a fast producer cannot
+ * make the queue grow without limit, and <tt>drainTo()</tt> can remove many
+ * elements in one lock acquisition.
+ *
+ * <p>
+ * Elements are kept in a circular array, so adding and removing do not
+ * allocate list nodes.
+ */
+public class BoundedSynchList {
+    /**
+     * Allocate a new bounded synchronized queue.
+     *
+     * @param	capacity	the maximum number of elements the queue can
+     *				hold.
+     */
+    public BoundedSynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	elements = new Object[capacity];
+	lock = new Lock();
+	listEmpty = new Condition(lock);
+	listFull = new Condition(lock);
+    }
+
+    /**
+     * Add the specified object to the end of the queue, waiting until there
+     * is room if necessary. If another thread is waiting in
+     * <tt>removeFirst()</tt>, it is woken up.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     */
+    public void add(Object o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	while (count == elements.length)
+	    listFull.sleep();
+	put(o);
+	lock.release();
+    }
+
+    /**
+     * Add the specified object to the end of the queue if there is room,
+     * without waiting.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, <tt>false</tt> if the
+     *		queue was full.
+     */
+    public boolean tryAdd(Object o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	boolean added = (count < elements.length);
+	if (added)
+	    put(o);
+	lock.release();
+
+	return added;
+    }
+
+    /**
+     * Remove an object from the front of the queue, blocking until the queue
+     * is non-empty if necessary.
+     *
+     * @return	the element removed from the front of the queue.
+     */
+    public Object removeFirst() {
+	Object o;
+
+	lock.acquire();
+	while (count == 0)
+	    listEmpty.sleep();
+	o = take();
+	listFull.wake();
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove up to <i>max</i> objects from the front of the queue and add
+     * them, in order, to <i>c</i>. Does not wait; returns 0 if the queue is
+     * empty. Every producer waiting for room that can now make progress is
+     * woken up.
+     *
+     * @param	c	the collection to add the removed objects to.
+     * @param	max	the maximum number of objects to remove.
+     * @return	the number of objects removed.
+     */
+    public int drainTo(Collection<Object> c, int max) {
+	lock.acquire();
+	int n = Math.min(max, count);
+	for (int i=0; i<n; i++) {
+	    c.add(take());
+	    listFull.wake();
+	}
+	lock.release();
+
+	return n;
+    }
+
+    /**
+     * Return the number of objects in the queue.
+     *
+     * @return	the number of objects in the queue.
+     */
+    public int size() {
+	return count;
+    }
+
+    /**
+     * Return the maximum number of objects the queue can hold.
+     *
+     * @return	the capacity of the queue.
+     */
+    public int capacity() {
+	return elements.length;
+    }
+
+    private void put(Object o) {
+	elements[(head + count) % elements.length] = o;
+	count++;
+	listEmpty.wake();
+    }
+
+    private Object take() {
+	Object o = elements[head];
+	elements[head] = null;
+	head = (head + 1) % elements.length;
+	count--;
+
+	return o;
+    }
+
+    /**
+     * Test that this module is working.
+     */
+    public static void selfTest() {
+	BoundedSynchList one = new BoundedSynchList(1);
+	Lib.assertTrue(one.tryAdd(new Integer(0)));
+	Lib.assertTrue(!one.tryAdd(new Integer(1)));
+	Lib.assertTrue(((Integer) one.removeFirst()).intValue() == 0);
+
+	final BoundedSynchList list = new BoundedSynchList(2);
+
+	new KThread(new Runnable() {
+		public void run() {
+		    for (int i=0; i<10; i++)
+			list.add(new Integer(i));
+		}
+	    }).setName("bounded producer").fork();
+
+	// the producer must stop at the capacity until we drain
+	KThread.yield();
+	Lib.assertTrue(list.size() <= list.capacity());
+
+	ArrayList<Object> drained = new ArrayList<Object>();
+	while (drained.size() < 10) {
+	    if (list.drainTo(drained, 3) == 0)
+		drained.add(list.removeFirst());
+	}
+	for (int i=0; i<10; i++)
+	    Lib.assertTrue(((Integer) drained.get(i)).intValue() == i);
+	Lib.assertTrue(list.size() == 0);
+    }
+
+    private Object[] elements;
+    private int head = 0;
+    private int count = 0;
+    private Lock lock;
+    private Condition listEmpty;
+    private Condition listFull;
+}
@@ -0,0 +1,254 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <i>channel</i> is a bounded buffer of 32-bit words between threads.
+ * Unlike a <tt>Communicator</tt>, a sender does not wait for a receiver as
+ * long as there is room in the buffer, and words can be moved in batches, so
+ * that a single wakeup can transfer many words.
+ *
+ * <p>
+ * Words are stored in a ring buffer and are received in the order they were
+ * sent. Words from a single call to <tt>send()</tt> are not interleaved with
+ * words from other senders unless the batch is larger than the free space
+ * in the buffer.
+ */
+public class Channel {
+    /**
+     * Allocate a new channel.
+     *
+     * @param	capacity	the number of words the channel can buffer.
+     */
+    public Channel(int capacity) {
+        Lib.assertTrue(capacity > 0);
+
+        buffer = new int[capacity];
+    }
+
+    /**
+     * Send one word, waiting for room in the buffer if necessary.
+     *
+     * @param	word	the word to send.
+     */
+    public void send(int word) {
+        send(new int[] { word }, 0, 1);
+    }
+
+    /**
+     * Send <i>len</i> words from <i>words</i>, starting at <i>off</i>. Waits
+     * whenever the buffer is full, and returns once every word has been put
+     * in the buffer.
+     *
+     * @param	words	the array holding the words to send.
+     * @param	off	the index of the first word to send.
+     * @param	len	the number of words to send.
+     */
+    public void send(int[] words, int off, int len) {
+        Lib.assertTrue(off >= 0 && len >= 0 && off+len <= words.length);
+
+        lock.acquire();
+        while (len > 0) {
+            while (count == buffer.length) {
+                waitingSenders++;
+                notFull.sleep();
+                waitingSenders--;
+            }
+
+            int copied = put(words, off, len);
+            off += copied;
+            len -= copied;
+        }
+        passOnSend();
+        lock.release();
+    }
+
+    /**
+     * Send as many of <i>len</i> words from <i>words</i>, starting at
+     * <i>off</i>, as fit in the buffer right now. Never waits.
+     *
+     * @param	words	the array holding the words to send.
+     * @param	off	the index of the first word to send.
+     * @param	len	the number of words to send.
+     * @return	the number of words sent, which may be 0.
+     */
+    public int trySend(int[] words, int off, int len) {
+        Lib.assertTrue(off >= 0 && len >= 0 && off+len <= words.length);
+
+        lock.acquire();
+        int copied = put(words, off, len);
+        passOnSend();
+        lock.release();
+
+        return copied;
+    }
+
+    /**
+     * Receive one word, waiting for one to be sent if necessary.
+     *
+     * @return	the word received.
+     */
+    public int receive() {
+        int[] word = new int[1];
+        receive(word, 0, 1);
+        return word[0];
+    }
+
+    /**
+     * Receive up to <tt>buf.length</tt> words into <i>buf</i>, waiting until
+     * at least one word is available.
+     *
+     * @param	buf	the array to fill.
+     * @return	the number of words received, at least 1 unless
+     *		<tt>buf</tt> is empty.
+     */
+    public int receive(int[] buf) {
+        return receive(buf, 0, buf.length);
+    }
+
+    /**
+     * Receive up to <i>len</i> words into <i>buf</i>, starting at
+     * <i>off</i>. Waits until at least one word is available, then takes as
+     * many as are buffered, up to <i>len</i>.
+     *
+     * @param	buf	the array to fill.
+     * @param	off	the index at which to store the first word.
+     * @param	len	the maximum number of words to receive.
+     * @return	the number of words received, at least 1 unless <i>len</i>
+     *		is 0.
+     */
+    public int receive(int[] buf, int off, int len) {
+        Lib.assertTrue(off >= 0 && len >= 0 && off+len <= buf.length);
+
+        if (len == 0)
+            return 0;
+
+        lock.acquire();
+        while (count == 0) {
+            waitingReceivers++;
+            notEmpty.sleep();
+            waitingReceivers--;
+        }
+
+        int copied = take(buf, off, len);
+        passOnReceive();
+        lock.release();
+
+        return copied;
+    }
+
+    /**
+     * Receive up to <i>len</i> words into <i>buf</i>, starting at
+     * <i>off</i>, without waiting.
+     *
+     * @param	buf	the array to fill.
+     * @param	off	the index at which to store the first word.
+     * @param	len	the maximum number of words to receive.
+     * @return	the number of words received, which may be 0.
+     */
+    public int tryReceive(int[] buf, int off, int len) {
+        Lib.assertTrue(off >= 0 && len >= 0 && off+len <= buf.length);
+
+        lock.acquire();
+        int copied = take(buf, off, len);
+        passOnReceive();
+        lock.release();
+
+        return copied;
+    }
+
+    /**
+     * Return the number of words currently buffered.
+     *
+     * @return	the number of words waiting to be received.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return the number of words this channel can buffer.
+     *
+     * @return	the capacity of this channel.
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Copy as many words as fit into the ring buffer, in at most two runs.
+     * The caller must hold the lock.
+     */
+    private int put(int[] words, int off, int len) {
+        int n = Math.min(len, buffer.length - count);
+        int tail = (head + count) % buffer.length;
+        int first = Math.min(n, buffer.length - tail);
+
+        System.arraycopy(words, off, buffer, tail, first);
+        System.arraycopy(words, off+first, buffer, 0, n-first);
+        count += n;
+
+        if (n > 0 && waitingReceivers > 0)
+            notEmpty.wake();
+
+        return n;
+    }
+
+    /**
+     * Copy as many buffered words as requested out of the ring buffer, in at
+     * most two runs. The caller must hold the lock.
+     */
+    private int take(int[] buf, int off, int len) {
+        int n = Math.min(len, count);
+        int first = Math.min(n, buffer.length - head);
+
+        System.arraycopy(buffer, head, buf, off, first);
+        System.arraycopy(buffer, 0, buf, off+first, n-first);
+        head = (head + n) % buffer.length;
+        count -= n;
+
+        if (n > 0 && waitingSenders > 0)
+            notFull.wake();
+
+        return n;
+    }
+
+    /**
+     * Each transfer wakes at most one waiter on the other side. Before a
+     * sender releases the lock, it passes the baton to the next waiting
+     * sender if there is still room left.
+     */
+    private void passOnSend() {
+        if (count < buffer.length && waitingSenders > 0)
+            notFull.wake();
+    }
+
+    /**
+     * Before a receiver releases the lock, it passes the baton to the next
+     * waiting receiver if there are still words left.
+     */
+    private void passOnReceive() {
+        if (count > 0 && waitingReceivers > 0)
+            notEmpty.wake();
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        ChannelTest.runall();
+    }
+
+    private int[] buffer;
+    /** The index of the oldest buffered word. */
+    private int head = 0;
+    /** The number of buffered words. */
+    private int count = 0;
+
+    private int waitingSenders = 0;
+    private int waitingReceivers = 0;
+
+    private Lock lock = new Lock();
+    private Condition notFull = new Condition(lock);
+    private Condition notEmpty = new Condition(lock);
+}
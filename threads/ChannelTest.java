@@ -0,0 +1,186 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the Channel class, plus a throughput benchmark comparing it with
+ * <tt>Communicator</tt>.
+ */
+public class ChannelTest {
+    /**
+     * Check that words arrive in order when batches wrap around the ring
+     * buffer and senders and receivers use different batch sizes.
+     */
+    public static boolean test1() {
+        final Channel channel = new Channel(7);
+        final int numWords = 200;
+
+        KThread sender = new KThread(new Runnable() {
+            public void run() {
+                int[] batch = new int[5];
+                for (int next=0; next<numWords; ) {
+                    int len = Math.min(batch.length, numWords - next);
+                    for (int i=0; i<len; i++)
+                        batch[i] = next + i;
+                    channel.send(batch, 0, len);
+                    next += len;
+                }
+            }
+        }).setName("channel sender");
+        sender.fork();
+
+        int[] buf = new int[3];
+        boolean inOrder = true;
+        for (int expected=0; expected<numWords; ) {
+            int n = channel.receive(buf);
+            for (int i=0; i<n; i++) {
+                if (buf[i] != expected++)
+                    inOrder = false;
+            }
+        }
+        sender.join();
+
+        return inOrder && channel.size() == 0;
+    }
+
+    /**
+     * Check that the non-blocking variants transfer what they can and
+     * return at once.
+     */
+    public static boolean test2() {
+        Channel channel = new Channel(4);
+        int[] words = { 1, 2, 3, 4, 5, 6 };
+        int[] buf = new int[6];
+
+        if (channel.tryReceive(buf, 0, buf.length) != 0)
+            return false;
+        if (channel.trySend(words, 0, 6) != 4 || channel.size() != 4)
+            return false;
+        if (channel.trySend(words, 4, 2) != 0)
+            return false;
+        if (channel.tryReceive(buf, 0, 3) != 3 || buf[2] != 3)
+            return false;
+        if (channel.trySend(words, 4, 2) != 2)
+            return false;
+        if (channel.tryReceive(buf, 0, buf.length) != 3)
+            return false;
+
+        return buf[0] == 4 && buf[1] == 5 && buf[2] == 6;
+    }
+
+    /**
+     * Check that no word is lost or duplicated with several senders and
+     * receivers sharing a small channel.
+     */
+    public static boolean test3() {
+        final Channel channel = new Channel(3);
+        final int numThreads = 4;
+        final int wordsPerSender = 50;
+        final long[] sums = new long[numThreads];
+
+        KThread[] threads = new KThread[2*numThreads];
+        for (int t=0; t<numThreads; t++) {
+            final int which = t;
+            threads[2*t] = new KThread(new Runnable() {
+                public void run() {
+                    for (int i=1; i<=wordsPerSender; i++)
+                        channel.send(i);
+                }
+            }).setName("sender" + t);
+            threads[2*t+1] = new KThread(new Runnable() {
+                public void run() {
+                    for (int i=0; i<wordsPerSender; i++)
+                        sums[which] += channel.receive();
+                }
+            }).setName("receiver" + t);
+        }
+
+        for (int i=0; i<threads.length; i++)
+            threads[i].fork();
+        for (int i=0; i<threads.length; i++)
+            threads[i].join();
+
+        long total = 0;
+        for (int t=0; t<numThreads; t++)
+            total += sums[t];
+
+        return total == numThreads * wordsPerSender * (wordsPerSender+1) / 2;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        Lib.assertTrue(test3());
+        Lib.debug(dbgChannel, "[ CHANNEL TESTS ]: PASSED");
+    }
+
+    /**
+     * Move the same number of words from one thread to another through a
+     * <tt>Communicator</tt> and through a <tt>Channel</tt>, and print the
+     * ticks and context switches each one took.
+     */
+    public static void benchmark() {
+        final int numWords = 1024;
+        final int batch = 16;
+
+        final Communicator comm = new Communicator();
+        long[] result = measure(new Runnable() {
+            public void run() {
+                for (int i=0; i<numWords; i++)
+                    comm.speak(i);
+            }
+        }, new Runnable() {
+            public void run() {
+                for (int i=0; i<numWords; i++)
+                    comm.listen();
+            }
+        });
+        report("Communicator", numWords, result);
+
+        final Channel channel = new Channel(4 * batch);
+        result = measure(new Runnable() {
+            public void run() {
+                int[] words = new int[batch];
+                for (int i=0; i<numWords; i+=batch)
+                    channel.send(words, 0, batch);
+            }
+        }, new Runnable() {
+            public void run() {
+                int[] buf = new int[4 * batch];
+                for (int i=0; i<numWords; )
+                    i += channel.receive(buf);
+            }
+        });
+        report("Channel(" + channel.capacity() + "), batch " + batch,
+               numWords, result);
+    }
+
+    private static long[] measure(Runnable sender, Runnable receiver) {
+        long startTicks = Machine.timer().getTime();
+        int startSwitches = KThread.getNumContextSwitches();
+
+        KThread s = new KThread(sender).setName("bench sender");
+        KThread r = new KThread(receiver).setName("bench receiver");
+        s.fork();
+        r.fork();
+        s.join();
+        r.join();
+
+        return new long[] {
+            Machine.timer().getTime() - startTicks,
+            KThread.getNumContextSwitches() - startSwitches
+        };
+    }
+
+    private static void report(String what, int numWords, long[] result) {
+        System.out.println("[ BENCH ] " + what + ": " + numWords
+                           + " words in " + result[0] + " ticks ("
+                           + (result[0] / numWords) + " per word), "
+                           + result[1] + " context switches ("
+                           + String.format("%.2f", (double) result[1] / numWords)
+                           + " per word)");
+    }
+
+    private static final char dbgChannel = 'x';
+}
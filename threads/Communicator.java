@@ -3,6 +3,8 @@ package nachos.threads;
 import nachos.machine.*;
 import nachos.threads.*;
 
+import java.util.LinkedList;
+
 /**
  * A <i>communicator</i> allows threads to synchronously exchange 32-bit
  * messages. Multiple threads can be waiting to <i>speak</i>,
@@ -17,34 +19,27 @@ public class Communicator {
     public Communicator() {
     }
 
-    /** Create one lock for the conditions of this Communicator instance. */
-    private Lock communicatorLock = new Lock();
-
-    /** If a speaker is called with no waiting listeners, it waits.
-     *  Otherwise, it is signaled to attempt to speak. */
-    private Condition okayToSpeak = new Condition(communicatorLock);
-
-    /** Waits for a speaker to speak. */
-    private Condition okayToListen = new Condition(communicatorLock);
-
-    /** Locks to preserve the transfer.
-     *  Signals once the transfer is successful. */
-    private Condition receivedTransfer = new Condition(communicatorLock);
-
-    /** Count of waiting speakers. */
-    private int waitSpeakers = 0;
+    /** A speaker or listener waiting to be paired. The counterpart that
+     *  pairs with it fills in WORD (for a listener) or reads it (for a
+     *  speaker), and then readies THREAD. */
+    private static class Waiter {
+        Waiter(KThread thread, int word) {
+            this.thread = thread;
+            this.word = word;
+        }
 
-    /** Count of waiting listeners. */
-    private int waitListeners = 0;
+        /** The waiting thread. */
+        KThread thread;
 
-    /** Boolean of whether an active speaker exists or not. */
-    private boolean actSpeaker = false;
+        /** The word being transferred. */
+        int word;
+    }
 
-    /** Boolean of whether an active listener exists or not. */
-    private boolean actListener = false;
+    /** Speakers waiting for a listener, in arrival order. */
+    private LinkedList<Waiter> speakers = new LinkedList<Waiter>();
 
-    /** The word to be transferred from a speaker to a listener. */
-    private int transferredWord = 0xFFFFFFFF;
+    /** Listeners waiting for a speaker, in arrival order. */
+    private LinkedList<Waiter> listeners = new LinkedList<Waiter>();
 
     /** Debugger flag specifically for Communicator and CommunicatorTest. */
     final static char dbgComm = 'v';
@@ -61,64 +56,65 @@ public class Communicator {
      * Does not return until this thread is paired up with a listening thread.
      * Exactly one listener should receive <i>word</i>.
      *
+     * <p>
+     * If a listener is already waiting, the word is handed to the longest
+     * waiting one and that listener is woken; otherwise this speaker waits
+     * until a listener takes its word. Either way, each exchange wakes exactly
+     * one thread.
+     *
      * @param   word    the integer to transfer.
      */
     public void speak(int word) {
-        communicatorLock.acquire();
-        while (actSpeaker || waitListeners < 1) {
-            waitSpeakers += 1;
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (!listeners.isEmpty()) {
+            Waiter listener = listeners.removeFirst();
+            listener.word = word;
+            totalPairs += 1;
+            Lib.debug(dbgComm, "\t> Speaker handed the word " + word
+                    + " to a waiting listener");
+            listener.thread.ready();
+        } else {
+            speakers.add(new Waiter(KThread.currentThread(), word));
             Lib.debug(dbgComm, "\t> Speaker is sleeping");
-            okayToSpeak.sleep();
-            waitSpeakers -= 1;
+            KThread.sleep();
         }
-        actSpeaker = true;
-        transferredWord = word;
-        Lib.debug(dbgComm,
-                "\t> Awake Speaker spoke the word " + transferredWord);
-        okayToListen.wake();
-        receivedTransfer.sleep();
 
-        actSpeaker = false;
-        okayToSpeak.wake();
-        communicatorLock.release();
-
-        return;
+        Machine.interrupt().restore(intStatus);
     }
 
     /**
      * Wait for a thread to speak through this communicator, and then return
      * the <i>word</i> that thread passed to <tt>speak()</tt>.
      *
+     * <p>
+     * Takes the word of the longest waiting speaker if there is one, waking
+     * only that speaker; otherwise waits for a speaker to hand over a word.
+     *
      * @return  the integer transferred.
      */
     public int listen() {
-        communicatorLock.acquire();
-        if (waitSpeakers > 0) {
-            okayToSpeak.wake();
-        }
-        waitListeners += 1;
-        Lib.debug(dbgComm, "\t> Listener is sleeping");
-        okayToListen.sleep();
-        waitListeners -= 1;
+        boolean intStatus = Machine.interrupt().disable();
+        int receivedWord;
 
-        actListener = true;
-        int receivedWord = transferredWord;
+        if (!speakers.isEmpty()) {
+            Waiter speaker = speakers.removeFirst();
+            receivedWord = speaker.word;
+            totalPairs += 1;
+            speaker.thread.ready();
+        } else {
+            Waiter me = new Waiter(KThread.currentThread(), 0);
+            listeners.add(me);
+            Lib.debug(dbgComm, "\t> Listener is sleeping");
+            KThread.sleep();
+            receivedWord = me.word;
+        }
         Lib.debug(dbgComm,
-                "\t> Awake Listener received the word " + receivedWord);
-        updateTotalPairs();
-        receivedTransfer.wake();
-        actListener = false;
-        communicatorLock.release();
+                "\t> Listener received the word " + receivedWord);
 
-        return receivedWord;
-    }
+        Machine.interrupt().restore(intStatus);
 
-    /** If a speaker transfers a word to a listener, increment TOTALPAIR by 1.
-     *  Used for debugging and testing purposes in CommunicatorTest. */
-    private void updateTotalPairs() {
-        if (actSpeaker && actListener) {
-            totalPairs += 1;
-        }
+        return receivedWord;
     }
 
     /** Tests for the Communicator class. The actual tests are located under
@@ -133,13 +129,13 @@ public class Communicator {
     /** Get number of waiting speakers.
      *  @return : WAITSPEAKEERS */
     public int getWaitSpeakers() {
-        return waitSpeakers;
+        return speakers.size();
     }
 
     /** Get number of waiting listeners
      *  @return : WAITLISTENERS */
     public int getWaitListeners() {
-        return waitListeners;
+        return listeners.size();
     }
 
     /** Get the total amount of pairs between a speaker and a listener.
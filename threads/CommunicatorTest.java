@@ -223,9 +223,11 @@ public class CommunicatorTest {
         listener2.fork();
         speaker3.fork();
 
-        //speaker1.join();
+        /* Speakers are paired in FIFO order, so SPEAKER1 is the one that
+         * gets the listener and SPEAKER3 is left waiting. */
+        speaker1.join();
         listener2.join();
-        speaker3.join();
+        //speaker3.join();
 
         KThread.yield();
 
@@ -690,6 +692,43 @@ public class CommunicatorTest {
                 + half + ".");
     }
 
+    /** Benchmark: exchange 1024 words between one speaker and one listener,
+     *  then between four of each, and report the simulated ticks and the
+     *  context switches per word. Run with the 'B' debug flag. */
+    public static void benchmark() {
+        benchmark(1, 1024);
+        benchmark(4, 1024);
+    }
+
+    /** Run one benchmark configuration and print its results.
+     *  @param numPairs : the number of speakers (and of listeners).
+     *  @param words : the total number of words to exchange. */
+    private static void benchmark(int numPairs, int words) {
+        Communicator comm = new Communicator();
+        KThread[] threads = new KThread[2 * numPairs];
+        for (int i = 0; i < numPairs; i += 1) {
+            threads[2 * i] = makeSpeakerThread(comm, i, words / numPairs);
+            threads[2 * i + 1] = makeListenerThread(comm, words / numPairs);
+        }
+
+        long startTicks = Machine.timer().getTime();
+        int startSwitches = KThread.getNumContextSwitches();
+        for (int i = 0; i < threads.length; i += 1) {
+            threads[i].fork();
+        }
+        for (int i = 0; i < threads.length; i += 1) {
+            threads[i].join();
+        }
+        long ticks = Machine.timer().getTime() - startTicks;
+        int switches = KThread.getNumContextSwitches() - startSwitches;
+
+        System.out.println("[ BENCH ] Communicator, " + numPairs
+                + " speaker(s) and " + numPairs + " listener(s): "
+                + comm.getTotalPairs() + " words in " + ticks + " ticks, "
+                + String.format("%.2f", (double) switches / words)
+                + " context switches per word");
+    }
+
     /** Makes a KThread that runs Communicator.SPEAK(WORD) LOOP times.
      *  @param comm : the Communicator to be used.
      *  @param word : the WORD to be sent.
@@ -79,11 +79,24 @@ public class Condition {
     public void sleep() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-	Semaphore waiter = new Semaphore(0);
+	Semaphore waiter = new Semaphore(0, null);
 	waitQueue.add(waiter);
 
+	if (profile != null) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    profile.waiting(KThread.currentThread());
+	    Machine.interrupt().restore(intStatus);
+	}
+
 	conditionLock.release();
 	waiter.P();
+
+	if (profile != null) {
+	    boolean intStatus = Machine.interrupt().disable();
+	    profile.woken(KThread.currentThread());
+	    Machine.interrupt().restore(intStatus);
+	}
+
 	conditionLock.acquire();	
     }
 
@@ -111,4 +124,5 @@ public class Condition {
 
     private Lock conditionLock;
     private LinkedList<Semaphore> waitQueue;
+    private LockProfiler.Site profile = LockProfiler.newSite("Condition", false);
 }
@@ -1,8 +1,5 @@
 package nachos.threads;
 
-
-import java.util.ArrayList;
-
 import nachos.machine.*;
 
 /**
@@ -38,7 +35,9 @@ public class Condition2 {
 	
 	conditionLock.release();
 	boolean intStatus = Machine.interrupt().disable();
-	condition2Queue.add(KThread.currentThread());
+	waitQueue.waitForAccess(KThread.currentThread());
+	if (profile != null)
+	    profile.waiting(KThread.currentThread());
 	KThread.sleep();
 	
 	
@@ -47,6 +46,41 @@ public class Condition2 {
 	
     }
 
+    /**
+     * Like <tt>sleep()</tt>, but give up waiting after at most <i>ticks</i>
+     * clock ticks. The lock is released and the thread starts waiting
+     * atomically, so a <tt>wake()</tt> issued as soon as the lock is free is
+     * not missed. Either way, the thread reacquires the lock before
+     * <tt>sleepFor()</tt> returns.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait. If not
+     *			positive, the lock is released and reacquired
+     *			without waiting.
+     * @return	<tt>true</tt> if the thread was woken by <tt>wake()</tt> or
+     *		<tt>wakeAll()</tt>, or <tt>false</tt> if the wait timed out.
+     */
+    public boolean sleepFor(long ticks) {
+	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	boolean woken = false;
+
+	conditionLock.release();
+	if (ticks > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    if (profile != null)
+		profile.waiting(KThread.currentThread());
+	    woken = ThreadedKernel.alarm.waitOn(waitQueue, ticks);
+	    if (!woken && profile != null)
+		profile.gaveUp(KThread.currentThread());
+	}
+
+	Machine.interrupt().restore(intStatus);
+	conditionLock.acquire();
+
+	return woken;
+    }
+
     /**
      * Wake up at most one thread sleeping on this condition variable. The
      * current thread must hold the associated lock.
@@ -55,9 +89,11 @@ public class Condition2 {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 	boolean intStatus = Machine.interrupt().disable();
 	
-	if (!(condition2Queue.isEmpty())){
-		condition2Queue.remove(0).ready();
-		
+	KThread thread = waitQueue.nextThread();
+	if (thread != null){
+		thread.ready();
+		if (profile != null)
+		    profile.woken(thread);
 	}
 	
 	
@@ -71,17 +107,16 @@ public class Condition2 {
     public void wakeAll() {
 	Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 	boolean intStatus = Machine.interrupt().disable();
-	while (!(condition2Queue.isEmpty())){
-		condition2Queue.remove(0).ready();
-		
-	}
-	
+	waitQueue.readyAll();
+	if (profile != null)
+	    profile.wokenAll();
 	
 	Machine.interrupt().restore(intStatus);
     }
 
     private Lock conditionLock;
-    private ArrayList<KThread> condition2Queue=new ArrayList<KThread>();
+    private ThreadQueue waitQueue=ThreadedKernel.scheduler.newThreadQueue(false);
+    private LockProfiler.Site profile = LockProfiler.newSite("Condition2", false);
     ////////////////////////////////////////////////////////////////////////////////////////
     //the following are test code
     //Self tests for this class is implemented here, and this method is called in ThreadedKernal
@@ -0,0 +1,107 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>CountDownLatch</tt> lets threads wait until a count reaches zero.
+ * <tt>countDown()</tt> decrements the count; the call that brings it to zero
+ * releases every waiting thread at once with a single
+ * <tt>ThreadQueue.readyAll()</tt>. After that the latch stays open, and
+ * <tt>await()</tt> returns immediately.
+ *
+ * <p>
+ * A latch can optionally be given an <i>owner</i>: the thread expected to
+ * count it down. Waiting threads then donate their priority to the owner
+ * until the latch opens.
+ */
+public class CountDownLatch {
+    /**
+     * Allocate a new latch that does not transfer priority.
+     *
+     * @param	count	the number of <tt>countDown()</tt> calls needed to
+     *			open the latch.
+     */
+    public CountDownLatch(int count) {
+        this(count, null);
+    }
+
+    /**
+     * Allocate a new latch whose waiters donate priority to <i>owner</i>.
+     *
+     * @param	count	the number of <tt>countDown()</tt> calls needed to
+     *			open the latch.
+     * @param	owner	the thread to donate priority to, or <tt>null</tt>
+     *			for no donation.
+     */
+    public CountDownLatch(int count, KThread owner) {
+        Lib.assertTrue(count >= 0);
+
+        this.count = count;
+        waitQueue = ThreadedKernel.scheduler.newThreadQueue(owner != null);
+        if (owner != null) {
+            boolean intStatus = Machine.interrupt().disable();
+            waitQueue.acquire(owner);
+            Machine.interrupt().restore(intStatus);
+        }
+    }
+
+    /**
+     * Decrement the count, opening the latch and releasing every waiting
+     * thread if it reaches zero. Does nothing if the latch is already open.
+     */
+    public void countDown() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (count > 0 && --count == 0)
+            waitQueue.readyAll();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait until the count reaches zero.
+     */
+    public void await() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (count > 0) {
+            waitQueue.waitForAccess(KThread.currentThread());
+            KThread.sleep();
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait at most <i>ticks</i> clock ticks for the count to reach zero.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the latch is open, or <tt>false</tt> if the
+     *		wait timed out.
+     */
+    public boolean await(long ticks) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (count > 0 && ticks > 0) {
+            waitQueue.waitForAccess(KThread.currentThread());
+            ThreadedKernel.alarm.waitOn(waitQueue, ticks);
+        }
+        boolean open = (count == 0);
+
+        Machine.interrupt().restore(intStatus);
+
+        return open;
+    }
+
+    /**
+     * Return the current count.
+     *
+     * @return	the number of <tt>countDown()</tt> calls still needed.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    private int count;
+    private ThreadQueue waitQueue;
+}
@@ -0,0 +1,335 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeSet;
+
+/**
+ * A fair scheduler with an additional earliest-deadline-first class for
+ * periodic real-time threads.
+ *
+ * <p>
+ * A thread becomes periodic by declaring a <i>period</i> and a <i>budget</i>
+ * with <tt>setPeriodic()</tt>. Each period it is released with a fresh
+ * budget, and its deadline is the start of the next period. Periodic threads
+ * that still have budget always run ahead of ordinary threads, and among
+ * themselves the thread with the earliest deadline runs first. Ordinary
+ * threads are scheduled exactly as by <tt>FairScheduler</tt>.
+ *
+ * <p>
+ * A periodic thread calls <tt>waitForNextPeriod()</tt> when it has finished
+ * the work for its current period; it then sleeps on the kernel's
+ * <tt>Alarm</tt> until its next release. Budgets are enforced at timer
+ * interrupts: a thread that has run for longer than its budget is
+ * <i>throttled</i> and competes as an ordinary thread until its next release,
+ * so an overrunning thread cannot starve the rest of the system.
+ *
+ * <p>
+ * A job that finishes after its deadline, or is still throttled when its
+ * deadline passes, counts as a deadline miss. The counters are printed by
+ * <tt>printStats()</tt> when the kernel terminates.
+ */
+public class DeadlineScheduler extends FairScheduler {
+    /**
+     * Allocate a new deadline scheduler.
+     */
+    public DeadlineScheduler() {
+    }
+
+    /**
+     * Allocate a new thread queue that gives access to periodic threads by
+     * deadline and to all other threads by virtual runtime.
+     *
+     * @param	transferPriority	ignored.
+     * @return	a new deadline thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new DeadlineQueue();
+    }
+
+    /**
+     * Make the specified thread periodic. Its first period starts now. Must
+     * be called with interrupts disabled.
+     *
+     * @param	thread	the thread to make periodic.
+     * @param	period	the length of each period, in clock ticks.
+     * @param	budget	the number of ticks the thread may run each period.
+     */
+    public void setPeriodic(KThread thread, long period, long budget) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        Lib.assertTrue(period > 0 && budget > 0 && budget <= period);
+
+        DeadlineState state = getDeadlineState(thread);
+        FairQueue queue = state.waitQueue;
+
+        if (queue != null)
+            queue.remove(state);
+
+        state.period = period;
+        state.budget = budget;
+        state.release(Machine.timer().getTime());
+
+        if (queue != null)
+            queue.insert(state);
+    }
+
+    /**
+     * Finish the current thread's work for this period and sleep until its
+     * next release. If the work finished after its deadline, a deadline miss
+     * is counted. If one or more releases have already passed, the thread
+     * starts its next period immediately.
+     */
+    public void waitForNextPeriod() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        DeadlineState state = getDeadlineState(KThread.currentThread());
+        Lib.assertTrue(state.period > 0);
+
+        long now = Machine.timer().getTime();
+        numJobs++;
+        state.numJobs++;
+        if (now > state.deadline)
+            state.missDeadline();
+
+        long release = state.deadline;
+        while (release + state.period <= now)
+            release += state.period;
+        state.release(release);
+
+        Machine.interrupt().restore(intStatus);
+
+        if (release > now)
+            ThreadedKernel.alarm.waitUntil(release - now);
+    }
+
+    /**
+     * Return the number of deadlines the specified thread has missed. Must be
+     * called with interrupts disabled.
+     *
+     * @param	thread	a periodic thread.
+     * @return	the number of deadlines missed by the thread.
+     */
+    public int getDeadlineMisses(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        return getDeadlineState(thread).numMisses;
+    }
+
+    /**
+     * Return the number of times the specified thread was throttled for
+     * running past its budget. Must be called with interrupts disabled.
+     *
+     * @param	thread	a periodic thread.
+     * @return	the number of budget overruns by the thread.
+     */
+    public int getBudgetOverruns(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        return getDeadlineState(thread).numOverruns;
+    }
+
+    /**
+     * Enforce budgets and replenish throttled threads whose next period has
+     * started, then let <tt>FairScheduler</tt> note the preemption.
+     */
+    public void preemptingThread(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        long now = Machine.timer().getTime();
+
+        DeadlineState state = getDeadlineState(thread);
+        if (state.period > 0 && !state.throttled) {
+            state.charge();
+            if (state.consumed >= state.budget) {
+                state.throttled = true;
+                state.numOverruns++;
+                numOverruns++;
+                throttledThreads.add(state);
+            }
+        }
+
+        for (Iterator<DeadlineState> i=throttledThreads.iterator(); i.hasNext(); ) {
+            DeadlineState throttled = i.next();
+            if (now < throttled.deadline)
+                continue;
+
+            i.remove();
+
+            FairQueue queue = throttled.waitQueue;
+            if (queue != null)
+                queue.remove(throttled);
+
+            throttled.missDeadline();
+            throttled.release(throttled.deadline);
+
+            if (queue != null)
+                queue.insert(throttled);
+        }
+
+        super.preemptingThread(thread);
+    }
+
+    /**
+     * Print the deadline counters.
+     */
+    public void printStats() {
+        System.out.println("Deadlines: jobs " + numJobs
+                           + ", misses " + numMisses
+                           + ", budget overruns " + numOverruns);
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new DeadlineState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    private DeadlineState getDeadlineState(KThread thread) {
+        return (DeadlineState) getThreadState(thread);
+    }
+
+    /**
+     * A <tt>FairQueue</tt> that keeps periodic threads with remaining budget
+     * in a second tree, ordered by deadline, and always serves that tree
+     * first.
+     */
+    protected class DeadlineQueue extends FairQueue {
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            if (realTimeQueue.isEmpty())
+                return super.nextThread();
+
+            DeadlineState state = realTimeQueue.pollFirst();
+            state.waitQueue = null;
+            uncountWaiter();
+
+            return state.thread;
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            Lib.assertTrue(realTimeQueue.isEmpty());
+            super.acquire(thread);
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (Iterator<DeadlineState> i=realTimeQueue.iterator(); i.hasNext(); ) {
+                DeadlineState state = i.next();
+                System.out.print(state.thread + "[" + state.deadline + "] ");
+            }
+            super.print();
+        }
+
+        protected void insert(ThreadState state) {
+            if (((DeadlineState) state).isRealTime())
+                realTimeQueue.add((DeadlineState) state);
+            else
+                super.insert(state);
+        }
+
+        protected void remove(ThreadState state) {
+            if (!realTimeQueue.remove(state))
+                super.remove(state);
+        }
+
+        private TreeSet<DeadlineState> realTimeQueue =
+            new TreeSet<DeadlineState>(new Comparator<DeadlineState>() {
+                public int compare(DeadlineState a, DeadlineState b) {
+                    if (a.deadline != b.deadline)
+                        return (a.deadline < b.deadline) ? -1 : 1;
+                    else if (a.sequence != b.sequence)
+                        return (a.sequence < b.sequence) ? -1 : 1;
+                    else
+                        return 0;
+                }
+            });
+    }
+
+    /**
+     * The scheduling state of a thread, extended with its period, budget and
+     * current deadline. A thread that has not been made periodic has a
+     * period of 0.
+     */
+    protected class DeadlineState extends ThreadState {
+        public DeadlineState(KThread thread) {
+            super(thread);
+        }
+
+        /**
+         * Also charge the time to the budget of the current period.
+         */
+        protected void charge() {
+            long ran = Machine.timer().getTime() - runningSince;
+            super.charge();
+
+            if (ran > 0)
+                consumed += ran;
+        }
+
+        /**
+         * Start a new period at the specified time.
+         */
+        void release(long time) {
+            if (throttled)
+                throttledThreads.remove(this);
+
+            releaseTime = time;
+            deadline = time + period;
+            consumed = 0;
+            throttled = false;
+        }
+
+        void missDeadline() {
+            numMisses++;
+            DeadlineScheduler.this.numMisses++;
+        }
+
+        boolean isRealTime() {
+            return period > 0 && !throttled;
+        }
+
+        /** The length of each period, or 0 for an ordinary thread. */
+        protected long period = 0;
+        /** The ticks this thread may run each period. */
+        protected long budget = 0;
+        /** The start of the current period. */
+        protected long releaseTime = 0;
+        /** The end of the current period. */
+        protected long deadline = 0;
+        /** The ticks this thread has run in the current period. */
+        protected long consumed = 0;
+        /** Whether this thread has used up its budget for this period. */
+        protected boolean throttled = false;
+
+        int numJobs = 0;
+        int numMisses = 0;
+        int numOverruns = 0;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        FairScheduler.selfTest();
+        DeadlineSchedulerTest.runall();
+    }
+
+    /** Periodic threads that are waiting for their budget to be replenished. */
+    private LinkedList<DeadlineState> throttledThreads =
+        new LinkedList<DeadlineState>();
+
+    private int numJobs = 0;
+    private int numMisses = 0;
+    private int numOverruns = 0;
+}
@@ -0,0 +1,165 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the DeadlineScheduler class. <tt>runall()</tt> must only be
+ * called while <tt>DeadlineScheduler</tt> is the kernel's scheduler.
+ */
+public class DeadlineSchedulerTest {
+    /**
+     * Burn about <i>iterations</i> * <tt>Stats.KernelTick</tt> ticks of
+     * processor time, letting the timer preempt the caller.
+     */
+    private static void spin(int iterations) {
+        for (int i=0; i<iterations; i++) {
+            boolean intStatus = Machine.interrupt().disable();
+            Machine.interrupt().restore(intStatus);
+        }
+    }
+
+    /**
+     * A background thread that competes for the processor until told to
+     * stop.
+     */
+    private static class Spinner implements Runnable {
+        public void run() {
+            while (!done) {
+                spin(1);
+                iterations++;
+            }
+        }
+
+        long iterations = 0;
+    }
+
+    /**
+     * A periodic thread that does a fixed amount of work each period. If
+     * <i>jobs</i> is negative, it never finishes its first job.
+     */
+    private static class Periodic implements Runnable {
+        Periodic(int jobs, int work) {
+            this.jobs = jobs;
+            this.work = work;
+        }
+
+        public void run() {
+            DeadlineScheduler scheduler =
+                (DeadlineScheduler) ThreadedKernel.scheduler;
+
+            if (jobs < 0) {
+                while (!done)
+                    spin(1);
+                return;
+            }
+
+            for (int i=0; i<jobs; i++) {
+                spin(work);
+                scheduler.waitForNextPeriod();
+            }
+        }
+
+        int jobs;
+        int work;
+    }
+
+    private static KThread forkPeriodic(Periodic periodic, String name,
+                                        long period, long budget) {
+        KThread thread = new KThread(periodic).setName(name);
+
+        boolean intStatus = Machine.interrupt().disable();
+        ((DeadlineScheduler) ThreadedKernel.scheduler)
+            .setPeriodic(thread, period, budget);
+        Machine.interrupt().restore(intStatus);
+
+        thread.fork();
+        return thread;
+    }
+
+    /**
+     * Check that a feasible set of periodic threads meets every deadline
+     * while processor-bound threads are runnable.
+     */
+    public static boolean test1() {
+        DeadlineScheduler scheduler =
+            (DeadlineScheduler) ThreadedKernel.scheduler;
+
+        done = false;
+        Spinner[] spinners = new Spinner[3];
+        KThread[] threads = new KThread[spinners.length];
+        for (int i=0; i<spinners.length; i++) {
+            spinners[i] = new Spinner();
+            threads[i] = new KThread(spinners[i]).setName("spinner" + i);
+            threads[i].fork();
+        }
+
+        KThread a = forkPeriodic(new Periodic(10, 50), "periodic a",
+                                 6 * Stats.TimerTicks, 3 * Stats.TimerTicks);
+        KThread b = forkPeriodic(new Periodic(6, 80), "periodic b",
+                                 10 * Stats.TimerTicks, 4 * Stats.TimerTicks);
+
+        a.join();
+        b.join();
+        done = true;
+        for (int i=0; i<threads.length; i++)
+            threads[i].join();
+
+        boolean intStatus = Machine.interrupt().disable();
+        int misses = scheduler.getDeadlineMisses(a)
+            + scheduler.getDeadlineMisses(b);
+        int overruns = scheduler.getBudgetOverruns(a)
+            + scheduler.getBudgetOverruns(b);
+        Machine.interrupt().restore(intStatus);
+
+        Lib.debug(dbgDeadline, "[ test1 ]: " + misses + " misses, "
+                  + overruns + " overruns");
+
+        return misses == 0 && overruns == 0;
+    }
+
+    /**
+     * Check that a periodic thread that runs past its budget is throttled,
+     * has its missed deadlines counted, and does not starve other threads.
+     */
+    public static boolean test2() {
+        DeadlineScheduler scheduler =
+            (DeadlineScheduler) ThreadedKernel.scheduler;
+
+        done = false;
+        KThread hog = forkPeriodic(new Periodic(-1, 0), "hog",
+                                   4 * Stats.TimerTicks, Stats.TimerTicks);
+
+        Spinner spinner = new Spinner();
+        KThread other = new KThread(spinner).setName("other");
+        other.fork();
+
+        ThreadedKernel.alarm.waitUntil(40 * Stats.TimerTicks);
+        done = true;
+        hog.join();
+        other.join();
+
+        boolean intStatus = Machine.interrupt().disable();
+        int misses = scheduler.getDeadlineMisses(hog);
+        int overruns = scheduler.getBudgetOverruns(hog);
+        Machine.interrupt().restore(intStatus);
+
+        Lib.debug(dbgDeadline, "[ test2 ]: " + misses + " misses, "
+                  + overruns + " overruns, other ran "
+                  + spinner.iterations + " iterations");
+
+        return overruns > 0 && misses > 0 && spinner.iterations > 0;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        System.out.println("[ DEADLINE TEST1 ]: PASSED");
+        Lib.assertTrue(test2());
+        System.out.println("[ DEADLINE TEST2 ]: PASSED");
+    }
+
+    /** Tells spinners to stop. */
+    private static boolean done = false;
+
+    private static final char dbgDeadline = 'e';
+}
@@ -0,0 +1,377 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * A completely fair scheduler. Each thread accumulates a <i>virtual
+ * runtime</i>: the number of clock ticks it has spent on the processor,
+ * scaled down by its weight. The next thread to receive access is always the
+ * waiting thread with the smallest virtual runtime, so threads that have used
+ * little of the processor (typically interactive threads that spend most of
+ * their time blocked) are run ahead of threads that have been computing.
+ *
+ * <p>
+ * Processor usage is measured with <tt>Machine.timer().getTime()</tt> between
+ * <tt>runningThread()</tt> and <tt>stoppingThread()</tt>, which
+ * <tt>KThread</tt> calls on every context switch. Waiting threads are kept in
+ * a balanced tree ordered by virtual runtime, so choosing the next thread and
+ * adding a waiting thread both take logarithmic time.
+ *
+ * <p>
+ * A thread's priority selects its weight. Each priority level above
+ * <tt>priorityDefault</tt> lets a thread receive roughly 25% more processor
+ * time than the level below it. No priority is transferred through locks or
+ * joins.
+ */
+public class FairScheduler extends Scheduler {
+    /**
+     * Allocate a new fair scheduler.
+     */
+    public FairScheduler() {
+    }
+
+    /**
+     * Allocate a new thread queue ordered by virtual runtime.
+     *
+     * @param	transferPriority	ignored. A fair scheduler does not
+     *					donate virtual runtime.
+     * @return	a new fair thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+        return new FairQueue();
+    }
+
+    public int getPriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        return getThreadState(thread).priority;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        return getThreadState(thread).priority;
+    }
+
+    public void setPriority(KThread thread, int priority) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        Lib.assertTrue(priority >= priorityMinimum &&
+                       priority <= priorityMaximum);
+
+        getThreadState(thread).priority = priority;
+    }
+
+    public boolean increasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+        boolean changed = false;
+
+        int priority = getPriority(KThread.currentThread());
+        if (priority < priorityMaximum) {
+            setPriority(KThread.currentThread(), priority+1);
+            changed = true;
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return changed;
+    }
+
+    public boolean decreasePriority() {
+        boolean intStatus = Machine.interrupt().disable();
+        boolean changed = false;
+
+        int priority = getPriority(KThread.currentThread());
+        if (priority > priorityMinimum) {
+            setPriority(KThread.currentThread(), priority-1);
+            changed = true;
+        }
+
+        Machine.interrupt().restore(intStatus);
+        return changed;
+    }
+
+    /**
+     * Start charging the specified thread for the processor.
+     */
+    public void runningThread(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        ThreadState state = getThreadState(thread);
+        state.runningSince = Machine.timer().getTime();
+        state.yielding = state.preempted = false;
+    }
+
+    /**
+     * Remember that the specified thread is about to yield.
+     */
+    public void yieldingThread(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        getThreadState(thread).yielding = true;
+    }
+
+    /**
+     * Remember that the specified thread is yielding because of a timer
+     * interrupt, so that it keeps its place in line.
+     */
+    public void preemptingThread(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        getThreadState(thread).preempted = true;
+    }
+
+    /**
+     * Charge the specified thread for the time it has held the processor.
+     */
+    public void stoppingThread(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        getThreadState(thread).charge();
+    }
+
+    /**
+     * Return the virtual runtime of the specified thread. Must be called with
+     * interrupts disabled.
+     *
+     * @param	thread	the thread whose virtual runtime to return.
+     * @return	the thread's virtual runtime.
+     */
+    public long getVirtualRuntime(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+        return getThreadState(thread).vruntime;
+    }
+
+    /**
+     * The default priority for a new thread.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum priority that a thread can have.
+     */
+    public static final int priorityMinimum = 0;
+    /**
+     * The maximum priority that a thread can have.
+     */
+    public static final int priorityMaximum = 7;
+
+    /**
+     * The weight of each priority level. A thread at
+     * <tt>priorityDefault</tt> accumulates virtual runtime at the same rate
+     * as real time; heavier threads accumulate it more slowly.
+     */
+    private static final int[] weights = {
+        819, 1024, 1280, 1600, 2000, 2500, 3125, 3906
+    };
+
+    /**
+     * How far behind the smallest virtual runtime a thread waking up from a
+     * long sleep may be placed. Without this bound, a thread that slept for a
+     * long time could monopolize the processor until it caught up.
+     */
+    private static final long sleeperCredit = Stats.TimerTicks;
+
+    /**
+     * How far ahead of the smallest virtual runtime a new thread starts.
+     */
+    private static final long forkDebit = Stats.TimerTicks;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+        if (thread.schedulingState == null)
+            thread.schedulingState = new ThreadState(thread);
+
+        return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that gives access to the waiting thread with the
+     * smallest virtual runtime. Threads with equal virtual runtimes are
+     * dequeued in the order they started waiting.
+     */
+    protected class FairQueue extends ThreadQueue {
+        public void waitForAccess(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState state = getThreadState(thread);
+            Lib.assertTrue(state.waitQueue == null);
+
+            /*
+             * A thread giving up the processor is charged before it is keyed
+             * into the tree. If it is yielding voluntarily rather than being
+             * preempted, it also gives up any lead it has and goes behind
+             * every waiting thread, so that yield() lets the others run.
+             */
+            if (thread == KThread.currentThread()) {
+                state.charge();
+                if (state.yielding && !state.preempted && !waitQueue.isEmpty())
+                    state.vruntime = Math.max(state.vruntime,
+                                              waitQueue.last().vruntime);
+                state.yielding = state.preempted = false;
+            }
+
+            state.vruntime = Math.max(state.vruntime,
+                                      minVruntime - sleeperCredit);
+            state.sequence = numEnqueued++;
+            state.waitQueue = this;
+            insert(state);
+            countWaiter();
+        }
+
+        public KThread nextThread() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            if (waitQueue.isEmpty())
+                return null;
+
+            ThreadState state = waitQueue.pollFirst();
+            state.waitQueue = null;
+            uncountWaiter();
+            minVruntime = Math.max(minVruntime, state.vruntime);
+
+            return state.thread;
+        }
+
+        public void acquire(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            Lib.assertTrue(waitQueue.isEmpty());
+        }
+
+        public boolean removeWaiter(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            ThreadState state = getThreadState(thread);
+            if (state.waitQueue != this)
+                return false;
+
+            remove(state);
+            state.waitQueue = null;
+            uncountWaiter();
+
+            return true;
+        }
+
+        public void print() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            for (Iterator<ThreadState> i=waitQueue.iterator(); i.hasNext(); ) {
+                ThreadState state = i.next();
+                System.out.print(state.thread + "(" + state.vruntime + ") ");
+            }
+        }
+
+        /**
+         * Key a waiting thread into this queue.
+         *
+         * @param	state	the scheduling state of the waiting thread.
+         */
+        protected void insert(ThreadState state) {
+            waitQueue.add(state);
+        }
+
+        /**
+         * Take a waiting thread out of this queue without giving it access,
+         * so that it can be rekeyed.
+         *
+         * @param	state	the scheduling state of the waiting thread.
+         */
+        protected void remove(ThreadState state) {
+            waitQueue.remove(state);
+        }
+
+        /** The waiting threads, ordered by virtual runtime. */
+        protected TreeSet<ThreadState> waitQueue =
+            new TreeSet<ThreadState>(new Comparator<ThreadState>() {
+                public int compare(ThreadState a, ThreadState b) {
+                    if (a.vruntime != b.vruntime)
+                        return (a.vruntime < b.vruntime) ? -1 : 1;
+                    else if (a.sequence != b.sequence)
+                        return (a.sequence < b.sequence) ? -1 : 1;
+                    else
+                        return 0;
+                }
+            });
+    }
+
+    /**
+     * The scheduling state of a thread: its priority, its virtual runtime,
+     * and the queue it is waiting on, if any.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState {
+        /**
+         * Allocate a new <tt>ThreadState</tt> object and associate it with the
+         * specified thread. A new thread starts one quantum past the
+         * smallest virtual runtime, so that the threads already runnable
+         * (including the thread that forked it) get to run first, and a
+         * thread that keeps forking cannot starve everyone else.
+         *
+         * @param	thread	the thread this state belongs to.
+         */
+        public ThreadState(KThread thread) {
+            this.thread = thread;
+            this.vruntime = minVruntime + forkDebit;
+        }
+
+        /**
+         * Add the ticks this thread has run since it was last charged to its
+         * virtual runtime. If the thread is sitting in a queue (a yielding
+         * thread is put on the ready queue before it gives up the
+         * processor), it is reinserted so the tree stays ordered.
+         */
+        protected void charge() {
+            long now = Machine.timer().getTime();
+            long ran = now - runningSince;
+            runningSince = now;
+
+            if (ran <= 0)
+                return;
+
+            if (waitQueue != null)
+                waitQueue.remove(this);
+
+            vruntime += ran * weights[priorityDefault] / weights[priority];
+            totalTicks += ran;
+
+            if (waitQueue != null)
+                waitQueue.insert(this);
+        }
+
+        /** The thread with which this object is associated. */
+        protected KThread thread;
+        /** The priority of the associated thread. */
+        protected int priority = priorityDefault;
+        /** The weighted number of ticks this thread has run. */
+        protected long vruntime;
+        /** The unweighted number of ticks this thread has run. */
+        protected long totalTicks = 0;
+        /** The time this thread was last charged for the processor. */
+        protected long runningSince = 0;
+        /** Breaks ties between threads with equal virtual runtimes. */
+        protected long sequence = 0;
+        /** Whether this thread is giving up the processor in yield(). */
+        protected boolean yielding = false;
+        /** Whether this thread is being preempted by the timer. */
+        protected boolean preempted = false;
+        /** The queue this thread is waiting on, or <tt>null</tt>. */
+        protected FairQueue waitQueue = null;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        FairSchedulerTest.runall();
+    }
+
+    /** Lower bound on the virtual runtime of a thread that starts waiting. */
+    private long minVruntime = 0;
+    /** Number of times a thread has started waiting, used to break ties. */
+    private long numEnqueued = 0;
+}
@@ -0,0 +1,176 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the FairScheduler class, plus a scheduler-independent benchmark
+ * of interactive wake-up latency under a processor-bound load.
+ *
+ * <p>
+ * <tt>runall()</tt> must only be called while <tt>FairScheduler</tt> is the
+ * kernel's scheduler. <tt>benchmark()</tt> can be run under any scheduler,
+ * so that the numbers it prints can be compared.
+ */
+public class FairSchedulerTest {
+    /**
+     * A thread that burns simulated time until told to stop. Each loop
+     * iteration enables interrupts once, which advances the clock by
+     * <tt>Stats.KernelTick</tt> and lets the timer preempt it.
+     */
+    private static class Spinner implements Runnable {
+        public void run() {
+            while (!done) {
+                boolean intStatus = Machine.interrupt().disable();
+                Machine.interrupt().restore(intStatus);
+                iterations++;
+            }
+        }
+
+        long iterations = 0;
+    }
+
+    /**
+     * A thread that repeatedly sleeps and records how late it was when it
+     * got the processor back.
+     */
+    private static class Sleeper implements Runnable {
+        Sleeper(int rounds, long sleepTicks) {
+            this.rounds = rounds;
+            this.sleepTicks = sleepTicks;
+        }
+
+        public void run() {
+            for (int i=0; i<rounds; i++) {
+                long wakeTime = Machine.timer().getTime() + sleepTicks;
+                ThreadedKernel.alarm.waitUntil(sleepTicks);
+                long latency = Machine.timer().getTime() - wakeTime;
+
+                totalLatency += latency;
+                maxLatency = Math.max(maxLatency, latency);
+            }
+            done = true;
+        }
+
+        int rounds;
+        long sleepTicks;
+        long totalLatency = 0;
+        long maxLatency = 0;
+    }
+
+    /**
+     * Run <i>numSpinners</i> spinners alongside one sleeper until the sleeper
+     * has woken up <i>rounds</i> times.
+     */
+    private static Sleeper runMix(Spinner[] spinners, int rounds) {
+        done = false;
+
+        KThread[] threads = new KThread[spinners.length];
+        for (int i=0; i<spinners.length; i++) {
+            if (spinners[i] == null)
+                spinners[i] = new Spinner();
+            threads[i] = new KThread(spinners[i]).setName("spinner" + i);
+        }
+        Sleeper sleeper = new Sleeper(rounds, 1000);
+        KThread sleeperThread = new KThread(sleeper).setName("sleeper");
+
+        for (int i=0; i<threads.length; i++)
+            threads[i].fork();
+        sleeperThread.fork();
+
+        sleeperThread.join();
+        for (int i=0; i<threads.length; i++)
+            threads[i].join();
+
+        return sleeper;
+    }
+
+    /**
+     * Check that a heavier thread receives more of the processor than a
+     * lighter one competing with it.
+     */
+    public static boolean test1() {
+        Spinner[] spinners = new Spinner[2];
+        spinners[0] = new Spinner();
+        spinners[1] = new Spinner();
+
+        done = false;
+        KThread light = new KThread(spinners[0]).setName("light");
+        KThread heavy = new KThread(spinners[1]).setName("heavy");
+
+        boolean intStatus = Machine.interrupt().disable();
+        ThreadedKernel.scheduler.setPriority(light, 1);
+        ThreadedKernel.scheduler.setPriority(heavy, 4);
+        Machine.interrupt().restore(intStatus);
+
+        KThread timer = new KThread(new Runnable() {
+            public void run() {
+                ThreadedKernel.alarm.waitUntil(50 * Stats.TimerTicks);
+                done = true;
+            }
+        }).setName("test1 timer");
+
+        light.fork();
+        heavy.fork();
+        timer.fork();
+        timer.join();
+        light.join();
+        heavy.join();
+
+        Lib.debug(dbgFair, "[ test1 ]: light ran " + spinners[0].iterations
+                  + " iterations, heavy ran " + spinners[1].iterations);
+
+        return spinners[1].iterations > spinners[0].iterations * 3 / 2;
+    }
+
+    /**
+     * Check that a thread waking from a sleep is run ahead of threads that
+     * have been using the processor.
+     */
+    public static boolean test2() {
+        Sleeper sleeper = runMix(new Spinner[3], 10);
+
+        Lib.debug(dbgFair, "[ test2 ]: max wake latency " + sleeper.maxLatency);
+
+        return sleeper.maxLatency <= 2 * Stats.TimerTicks;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        System.out.println("[ FAIR TEST1 ]: PASSED");
+        Lib.assertTrue(test2());
+        System.out.println("[ FAIR TEST2 ]: PASSED");
+    }
+
+    /**
+     * Measure how quickly a sleeping thread gets the processor back while
+     * several processor-bound threads are runnable, and how much work the
+     * processor-bound threads got done meanwhile. Prints one line of results
+     * labelled with the current scheduler's class name.
+     */
+    public static void benchmark() {
+        final int numSpinners = 8;
+        final int rounds = 40;
+
+        Spinner[] spinners = new Spinner[numSpinners];
+        long start = Machine.timer().getTime();
+        Sleeper sleeper = runMix(spinners, rounds);
+        long elapsed = Machine.timer().getTime() - start;
+
+        long work = 0;
+        for (int i=0; i<numSpinners; i++)
+            work += spinners[i].iterations;
+
+        System.out.println("[ BENCH ] " + ThreadedKernel.scheduler.getClass().getName()
+                           + ": " + numSpinners + " spinners, " + rounds
+                           + " wakeups, wake latency avg "
+                           + (sleeper.totalLatency / rounds) + " max "
+                           + sleeper.maxLatency + " ticks, spinner work "
+                           + work + " iterations in " + elapsed + " ticks");
+    }
+
+    /** Tells spinners to stop. */
+    private static boolean done = false;
+
+    private static final char dbgFair = 'f';
+}
@@ -0,0 +1,207 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A ready queue that gang-schedules threads belonging to the same group,
+ * such as the <tt>UThread</tt>s of one user process. It wraps the ready
+ * queue of the kernel's scheduler, which still decides which group runs
+ * next.
+ *
+ * <p>
+ * Each group has at most one thread, its <i>representative</i>, on the
+ * underlying queue. Its other ready threads wait beside it here. When the
+ * scheduler picks a representative, that group's turn starts. For the rest
+ * of the quantum, whenever the running thread stops, the next ready thread
+ * of the same group runs in its place, instead of a thread from an
+ * unrelated group. When the quantum is over or the group has nothing left to
+ * run, the turn ends. The group's next ready thread, if any, then goes back
+ * on the underlying queue as its representative.
+ *
+ * <p>
+ * Threads whose <tt>KThread.getGang()</tt> is <tt>null</tt> are passed
+ * straight through to the underlying queue. Gang scheduling is off unless
+ * <tt>ThreadedKernel.gangScheduling</tt> is set to <tt>true</tt> in the
+ * configuration file.
+ */
+public class GangQueue extends ThreadQueue {
+    /**
+     * Allocate a new gang queue in front of <i>base</i>.
+     *
+     * @param	base	the scheduler's ready queue.
+     */
+    public GangQueue(ThreadQueue base) {
+        this.base = base;
+    }
+
+    public void waitForAccess(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Object gang = thread.getGang();
+        LinkedList<KThread> siblings = (gang == null) ? null : ready.get(gang);
+
+        if (siblings != null) {
+            siblings.add(thread);
+            countWaiter();
+        }
+        else {
+            if (gang != null)
+                ready.put(gang, new LinkedList<KThread>());
+            base.waitForAccess(thread);
+        }
+    }
+
+    public KThread nextThread() {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        if (runningGang != null
+            && Machine.timer().getTime() - turnStart < Stats.TimerTicks) {
+            KThread sibling = takeSibling(runningGang);
+            if (sibling != null) {
+                numSiblingSwitches++;
+                return sibling;
+            }
+        }
+
+        endTurn();
+
+        KThread thread = base.nextThread();
+        if (thread != null && thread.getGang() != null) {
+            runningGang = thread.getGang();
+            turnStart = Machine.timer().getTime();
+        }
+
+        return thread;
+    }
+
+    public void acquire(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        base.acquire(thread);
+    }
+
+    public boolean removeWaiter(KThread thread) {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        Object gang = thread.getGang();
+        LinkedList<KThread> siblings = (gang == null) ? null : ready.get(gang);
+
+        if (siblings != null && siblings.remove(thread)) {
+            uncountWaiter();
+            return true;
+        }
+
+        if (!base.removeWaiter(thread))
+            return false;
+
+        // the representative left, so another member must take its place
+        if (gang != null && gang != runningGang)
+            promote(gang);
+        return true;
+    }
+
+    public void print() {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        base.print();
+        for (Iterator<LinkedList<KThread>> i=ready.values().iterator();
+             i.hasNext(); ) {
+            for (Iterator<KThread> j=i.next().iterator(); j.hasNext(); )
+                System.out.print(j.next() + " ");
+        }
+    }
+
+    /**
+     * Return the scheduler's ready queue that this queue wraps.
+     *
+     * @return	the underlying ready queue.
+     */
+    public ThreadQueue getBase() {
+        return base;
+    }
+
+    /**
+     * Return the number of times a thread was run straight after a sibling,
+     * bypassing the underlying queue.
+     *
+     * @return	the number of back-to-back sibling dispatches.
+     */
+    public int getSiblingSwitches() {
+        return numSiblingSwitches;
+    }
+
+    /**
+     * Take the first ready thread of <i>gang</i> other than the thread that
+     * is giving up the processor, which must let someone else run.
+     */
+    private KThread takeSibling(Object gang) {
+        LinkedList<KThread> siblings = ready.get(gang);
+        KThread current = KThread.currentThread();
+
+        for (Iterator<KThread> i=siblings.iterator(); i.hasNext(); ) {
+            KThread thread = i.next();
+            if (thread != current) {
+                i.remove();
+                uncountWaiter();
+                return thread;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * End the running group's turn, putting it back on the underlying queue
+     * if it still has ready threads.
+     */
+    private void endTurn() {
+        if (runningGang != null)
+            promote(runningGang);
+        runningGang = null;
+    }
+
+    /**
+     * Make the next ready thread of <i>gang</i> its representative on the
+     * underlying queue, or forget the group if it has none.
+     */
+    private void promote(Object gang) {
+        LinkedList<KThread> siblings = ready.get(gang);
+
+        if (siblings.isEmpty()) {
+            ready.remove(gang);
+        }
+        else {
+            uncountWaiter();
+            base.waitForAccess(siblings.removeFirst());
+        }
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        GangQueueTest.runall();
+    }
+
+    /**
+     * Whether the ready queue is a <tt>GangQueue</tt>. Set from
+     * <tt>ThreadedKernel.gangScheduling</tt> before the first thread is
+     * created.
+     */
+    static boolean enabled = false;
+
+    private ThreadQueue base;
+    /**
+     * The ready threads of each group held back here. A group has an entry
+     * while its representative is on the underlying queue or it is running.
+     */
+    private HashMap<Object, LinkedList<KThread>> ready =
+        new HashMap<Object, LinkedList<KThread>>();
+    private Object runningGang = null;
+    private long turnStart = 0;
+    private int numSiblingSwitches = 0;
+}
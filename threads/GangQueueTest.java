@@ -0,0 +1,110 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for <tt>GangQueue</tt>. The tests build their own gang queue in
+ * front of a fresh queue from the kernel's scheduler, and never fork the
+ * threads they put on it, so they work whether or not the kernel's ready
+ * queue is gang-scheduled.
+ */
+public class GangQueueTest {
+    /** A thread that belongs to a fixed group. */
+    private static class GangThread extends KThread {
+        GangThread(Object gang, String name) {
+            this.gang = gang;
+            setName(name);
+        }
+
+        protected Object getGang() {
+            return gang;
+        }
+
+        private Object gang;
+    }
+
+    /**
+     * Check that the threads of each group come off the queue back to back,
+     * even when they became ready interleaved with another group's, and
+     * that ungrouped threads still come off.
+     */
+    public static boolean test1() {
+        Object a = "gang A";
+        Object b = "gang B";
+        KThread[] threads = {
+            new GangThread(a, "a1"), new GangThread(b, "b1"),
+            new GangThread(a, "a2"), new GangThread(b, "b2"),
+            new GangThread(a, "a3")
+        };
+        KThread loner = new GangThread(null, "loner");
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        GangQueue queue =
+            new GangQueue(ThreadedKernel.scheduler.newThreadQueue(false));
+        for (int i=0; i<threads.length; i++)
+            queue.waitForAccess(threads[i]);
+        queue.waitForAccess(loner);
+
+        Object[] order = new Object[threads.length + 1];
+        for (int i=0; i<order.length; i++) {
+            KThread thread = queue.nextThread();
+            order[i] = (thread == null) ? "none" : thread.getGang();
+        }
+        boolean empty = (queue.nextThread() == null);
+        int siblingSwitches = queue.getSiblingSwitches();
+
+        Machine.interrupt().restore(intStatus);
+
+        // each group runs in one contiguous stretch
+        int changes = 0;
+        for (int i=1; i<order.length; i++) {
+            if (order[i] != order[i-1])
+                changes++;
+        }
+
+        return empty && changes == 2 && siblingSwitches == 3;
+    }
+
+    /**
+     * Check that a group's turn ends after a quantum, letting another group
+     * run before its remaining thread. Only meaningful under
+     * <tt>RoundRobinScheduler</tt>, whose queue order is known.
+     */
+    public static boolean test2() {
+        Object a = "gang A";
+        Object b = "gang B";
+        KThread a1 = new GangThread(a, "a1");
+        KThread a2 = new GangThread(a, "a2");
+        KThread b1 = new GangThread(b, "b1");
+
+        boolean intStatus = Machine.interrupt().disable();
+        GangQueue queue =
+            new GangQueue(ThreadedKernel.scheduler.newThreadQueue(false));
+        queue.waitForAccess(a1);
+        queue.waitForAccess(b1);
+        queue.waitForAccess(a2);
+        boolean first = (queue.nextThread() == a1);
+        Machine.interrupt().restore(intStatus);
+
+        ThreadedKernel.alarm.waitUntil(Stats.TimerTicks + 100);
+
+        intStatus = Machine.interrupt().disable();
+        boolean second = (queue.nextThread() == b1);
+        boolean third = (queue.nextThread() == a2);
+        boolean empty = (queue.nextThread() == null);
+        Machine.interrupt().restore(intStatus);
+
+        return first && second && third && empty;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        if (ThreadedKernel.scheduler instanceof RoundRobinScheduler)
+            Lib.assertTrue(test2());
+        Lib.debug(dbgGang, "[ GANG QUEUE TESTS ]: PASSED");
+    }
+
+    private static final char dbgGang = 'x';
+}
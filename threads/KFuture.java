@@ -0,0 +1,87 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>KFuture</tt> stands for a task submitted to a <tt>KThreadPool</tt>.
+ * Any number of threads can <tt>join()</tt> it to wait until a worker has
+ * run the task.
+ *
+ * @see	nachos.threads.KThreadPool#submit
+ */
+public class KFuture {
+    /**
+     * Allocate a new future for the specified task.
+     *
+     * @param	task	the task to run.
+     */
+    KFuture(Runnable task) {
+        Lib.assertTrue(task != null);
+
+        this.task = task;
+    }
+
+    /**
+     * Run the task in the current thread, then wake every thread joining
+     * this future.
+     */
+    void run() {
+        task.run();
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        done = true;
+        waitQueue.readyAll();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the task has finished running.
+     *
+     * @return	<tt>true</tt> if the task has finished.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Wait for the task to finish. Returns immediately if it already has.
+     */
+    public void join() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (!done) {
+            waitQueue.waitForAccess(KThread.currentThread());
+            KThread.sleep();
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait at most <i>ticks</i> clock ticks for the task to finish.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the task has finished, or <tt>false</tt> if
+     *		the wait timed out.
+     */
+    public boolean join(long ticks) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (!done && ticks > 0) {
+            waitQueue.waitForAccess(KThread.currentThread());
+            ThreadedKernel.alarm.waitOn(waitQueue, ticks);
+        }
+        boolean finished = done;
+
+        Machine.interrupt().restore(intStatus);
+
+        return finished;
+    }
+
+    private Runnable task;
+    private boolean done = false;
+    private ThreadQueue waitQueue =
+        ThreadedKernel.scheduler.newThreadQueue(false);
+}
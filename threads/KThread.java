@@ -46,18 +46,26 @@ public class KThread {
 			tcb = new TCB();
 		} else {
 			readyQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+			ThreadStats.setReadyQueue(readyQueue);
+			if (GangQueue.enabled)
+				readyQueue = new GangQueue(readyQueue);
 			readyQueue.acquire(this);
-			//join queue constructor
-			joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
-			boolean intStatus = Machine.interrupt().disable();
-			joinQueue.acquire(this);
-			Machine.interrupt().restore(intStatus);
 			currentThread = this;
 			tcb = TCB.currentTCB();
 			name = "main";
 			restoreState();
 			createIdleThread();
 		}
+
+		//every thread, including subclasses that never call
+		//KThread(Runnable), gets a join queue that it holds until it finishes
+		joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+		boolean intStatus = Machine.interrupt().disable();
+		joinQueue.acquire(this);
+		joinProfile = LockProfiler.newSite("join", true);
+		if (joinProfile != null)
+			joinProfile.acquired(this);
+		Machine.interrupt().restore(intStatus);
 	}
 
 	/**
@@ -68,12 +76,6 @@ public class KThread {
 	public KThread(Runnable target) {
 		this();
 		this.target = target;
-		//join queue constructor to cover both parts of the if statement
-		joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
-		boolean intStatus = Machine.interrupt().disable();
-		joinQueue.acquire(this);
-		Machine.interrupt().restore(intStatus);
-
 	}
 
 	/**
@@ -192,9 +194,33 @@ public class KThread {
 		return outString;
 	}
 
+	/**
+	 * Return the scheduling telemetry of this thread. The counters stay at
+	 * zero unless <tt>ThreadedKernel.telemetry</tt> is enabled.
+	 *
+	 * @return	the telemetry of this thread.
+	 */
+	public ThreadStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Return the number of times the processor has been switched from one
+	 * thread to a different one. Useful for comparing how many wakeups
+	 * different synchronization primitives cost.
+	 *
+	 * @return	the number of context switches so far.
+	 */
+	public static int getNumContextSwitches() {
+		return numContextSwitches;
+	}
+
 	public static int getReadyQueueID()
 	{
-		PriorityScheduler.PriorityQueue rq = (PriorityScheduler.PriorityQueue)readyQueue;
+		ThreadQueue queue = readyQueue;
+		if (queue instanceof GangQueue)
+			queue = ((GangQueue) queue).getBase();
+		PriorityScheduler.PriorityQueue rq = (PriorityScheduler.PriorityQueue)queue;
 		return rq.queueID;
 	}
 
@@ -221,12 +247,13 @@ public class KThread {
 
 		currentThread.status = statusFinished;
 		
-		/**this is where the queue for joing threads is poped**/
+		/**this is where every thread joining this one is woken**/
 		
 		boolean intStatus = Machine.interrupt().disable();
-		KThread waitThread = currentThread.joinQueue.nextThread();
-		if( waitThread != null ) {
-			waitThread.ready();
+		currentThread.joinQueue.readyAll();
+		if (currentThread.joinProfile != null) {
+			currentThread.joinProfile.released();
+			currentThread.joinProfile.wokenAll();
 		}
 		Machine.interrupt().restore(intStatus);
 
@@ -253,6 +280,7 @@ public class KThread {
 		Lib.debug(dbgThread, "Yielding thread: " + currentThread.toString());
 		Lib.assertTrue(currentThread.status == statusRunning);
 		boolean intStatus = Machine.interrupt().disable();
+		ThreadedKernel.scheduler.yieldingThread(currentThread);
 		currentThread.ready();
 		runNextThread();
 		Machine.interrupt().restore(intStatus);
@@ -274,8 +302,12 @@ public class KThread {
 
 		Lib.assertTrue(Machine.interrupt().disabled());
 
-		if (currentThread.status != statusFinished)
+		if (currentThread.status != statusFinished) {
 			currentThread.status = statusBlocked;
+			currentThread.stats.blocked();
+		} else {
+			currentThread.stats.finished();
+		}
 
 		runNextThread();
 	}
@@ -291,6 +323,7 @@ public class KThread {
 		Lib.assertTrue(status != statusReady);
 
 		status = statusReady;
+		stats.ready();
 		if (this != idleThread) 
 			readyQueue.waitForAccess(this);
 
@@ -299,8 +332,9 @@ public class KThread {
 
 	/**
 	 * Waits for this thread to finish. If this thread is already finished,
-	 * return immediately. This method must only be called once; the second
-	 * call is not guaranteed to return. This thread must not be the current
+	 * return immediately. Any number of threads may join the same thread;
+	 * all of them are woken when it finishes, and while they wait each one
+	 * donates its priority to it. This thread must not be the current
 	 * thread.
 	 */
 	public void join() {
@@ -308,18 +342,60 @@ public class KThread {
 		boolean intStatus = Machine.interrupt().disable();
 		Lib.assertTrue(this != currentThread);
 		if (this.status != statusFinished){
-			if (!joinCalled){
-				joinCalled=true;
+			joinQueue.waitForAccess(currentThread);
+			if (joinProfile != null)
+				joinProfile.waiting(currentThread);
+			KThread.sleep();
+		}
+		Machine.interrupt().restore(intStatus);
+
+
+	}
+
+	/**
+	 * Waits at most <i>ticks</i> clock ticks for this thread to finish. If
+	 * this thread is already finished, return immediately. This thread must
+	 * not be the current thread.
+	 *
+	 * @param	ticks	the maximum number of clock ticks to wait. If not
+	 *			positive, only check whether this thread has
+	 *			finished.
+	 * @return	<tt>true</tt> if this thread has finished, or
+	 *		<tt>false</tt> if the wait timed out.
+	 */
+	public boolean join(long ticks) {
+		Lib.debug(dbgThread, "Joining to thread: " + toString() + " for " + ticks + " ticks");
+		boolean intStatus = Machine.interrupt().disable();
+		Lib.assertTrue(this != currentThread);
+		boolean finished = true;
+		if (this.status != statusFinished){
+			if (ticks > 0){
 				joinQueue.waitForAccess(currentThread);
-				KThread.sleep();
+				if (joinProfile != null)
+					joinProfile.waiting(currentThread);
+				finished = ThreadedKernel.alarm.waitOn(joinQueue, ticks);
+				if (!finished && joinProfile != null)
+					joinProfile.gaveUp(currentThread);
+			}
+			else {
+				finished = false;
 			}
-			joinCalled=false;
-		
 		}
 		Machine.interrupt().restore(intStatus);
 
-
+		return finished;
 	}
+	/**
+	 * Return the group this thread is gang-scheduled with, if the ready
+	 * queue is a <tt>GangQueue</tt>. Kernel threads belong to no group.
+	 *
+	 * @return	an object identifying this thread's group, or
+	 *		<tt>null</tt> if it is scheduled on its own.
+	 */
+	protected Object getGang() {
+		return null;
+	}
+
 	//Testing Helper Method
 	//that returns the ID of a thread
 	public int getID(){
@@ -345,10 +421,14 @@ public class KThread {
 
 		idleThread = new KThread(new Runnable() {
 			public void run() {
-				while (true) yield();
+				while (true) {
+					LockProfiler.idle();
+					yield();
+				}
 			}
 		});
 		idleThread.setName("idle");
+		idleThread.stats.setIdle();
 		Machine.autoGrader().setIdleThread(idleThread);
 		idleThread.fork();
 	}
@@ -388,9 +468,12 @@ public class KThread {
 	private void run() {
 		Lib.assertTrue(Machine.interrupt().disabled());
 		Machine.yield();
+		ThreadedKernel.scheduler.stoppingThread(currentThread);
 		currentThread.saveState();
 		Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
 				+ " to: " + toString());
+		if (this != currentThread)
+			numContextSwitches++;
 		currentThread = this;
 		tcb.contextSwitch();
 		currentThread.restoreState();
@@ -408,7 +491,9 @@ public class KThread {
 		Lib.assertTrue(tcb == TCB.currentTCB());
 
 		Machine.autoGrader().runningThread(this);
+		ThreadedKernel.scheduler.runningThread(this);
 		status = statusRunning;
+		stats.running();
 
 		if (toBeDestroyed != null) {
 			toBeDestroyed.tcb.destroy();
@@ -477,6 +562,7 @@ public class KThread {
 	private String name = "(unnamed thread)";
 	private Runnable target;
 	private TCB tcb;
+	private ThreadStats stats = new ThreadStats(this);
 	
 
 	/**
@@ -486,12 +572,15 @@ public class KThread {
 	private int id = numCreated++;
 	/** Number of times the KThread constructor was called. */
 	private static int numCreated = 0;
+	/** Number of times <tt>run()</tt> switched to a different thread. */
+	private static int numContextSwitches = 0;
 
 	private static ThreadQueue readyQueue = null;
 	private static KThread currentThread = null;
 	private static KThread toBeDestroyed = null;
 	private static KThread idleThread = null;
 	//added variables
-	private boolean joinCalled = false;
 	private ThreadQueue joinQueue;
+	/** Contention profile for <tt>join()</tt>, if profiling is on. */
+	private LockProfiler.Site joinProfile = null;
 }
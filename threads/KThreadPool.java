@@ -0,0 +1,267 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.LinkedList;
+
+/**
+ * A pool of kernel worker threads that run submitted tasks, so that short
+ * tasks reuse threads that already exist instead of each forking a new
+ * <tt>KThread</tt> (and with it a new TCB).
+ *
+ * <p>
+ * The pool keeps at least <tt>minThreads</tt> workers and starts more, up to
+ * <tt>maxThreads</tt>, when a task is submitted and no worker is idle. A
+ * worker beyond the minimum exits once it has been idle for
+ * <tt>keepAliveTicks</tt>. With <tt>minThreads == maxThreads</tt> the pool
+ * is fixed-size.
+ *
+ * <p>
+ * Tasks wait in a FIFO queue that holds at most <tt>queueCapacity</tt>
+ * tasks; <tt>submit()</tt> waits while it is full, and
+ * <tt>trySubmit()</tt> fails instead. Once the pool has been shut down,
+ * both fail, including a <tt>submit()</tt> that was waiting for room.
+ */
+public class KThreadPool {
+    /**
+     * Allocate a fixed-size pool.
+     *
+     * @param	numThreads	the number of worker threads.
+     * @param	queueCapacity	the number of tasks that can wait for a
+     *				worker.
+     */
+    public KThreadPool(int numThreads, int queueCapacity) {
+        this(numThreads, numThreads, queueCapacity, 0);
+    }
+
+    /**
+     * Allocate a pool that grows and shrinks with demand.
+     *
+     * @param	minThreads	the number of workers always kept.
+     * @param	maxThreads	the largest number of workers.
+     * @param	queueCapacity	the number of tasks that can wait for a
+     *				worker.
+     * @param	keepAliveTicks	how long a worker beyond
+     *				<tt>minThreads</tt> stays idle before
+     *				exiting.
+     */
+    public KThreadPool(int minThreads, int maxThreads, int queueCapacity,
+                       long keepAliveTicks) {
+        Lib.assertTrue(minThreads >= 0 && maxThreads > 0
+                       && minThreads <= maxThreads);
+        Lib.assertTrue(queueCapacity > 0);
+        Lib.assertTrue(minThreads == maxThreads || keepAliveTicks > 0);
+
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.queueCapacity = queueCapacity;
+        this.keepAliveTicks = keepAliveTicks;
+
+        boolean intStatus = Machine.interrupt().disable();
+        for (int i=0; i<minThreads; i++)
+            startWorker();
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Submit a task, waiting for room in the task queue if it is full.
+     *
+     * @param	task	the task to run.
+     * @return	a future that can be joined to wait for the task, or
+     *		<tt>null</tt> if the pool was shut down.
+     */
+    public KFuture submit(Runnable task) {
+        KFuture future = new KFuture(task);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        while (!shutdown && tasks.size() == queueCapacity) {
+            notFull.waitForAccess(KThread.currentThread());
+            KThread.sleep();
+        }
+        if (!shutdown)
+            enqueue(future);
+        else
+            future = null;
+
+        Machine.interrupt().restore(intStatus);
+
+        return future;
+    }
+
+    /**
+     * Submit a task if there is room in the task queue, without waiting.
+     *
+     * @param	task	the task to run.
+     * @return	a future that can be joined to wait for the task, or
+     *		<tt>null</tt> if the task queue was full or the pool was shut
+     *		down.
+     */
+    public KFuture trySubmit(Runnable task) {
+        KFuture future = new KFuture(task);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (!shutdown && tasks.size() < queueCapacity)
+            enqueue(future);
+        else
+            future = null;
+
+        Machine.interrupt().restore(intStatus);
+
+        return future;
+    }
+
+    /**
+     * Stop accepting tasks, let the workers finish the tasks already queued,
+     * and wait for every worker to exit. Submitters waiting for room in the
+     * task queue are woken, and their tasks are not run.
+     */
+    public void shutdown() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        shutdown = true;
+        idleWorkers.readyAll();
+        notFull.readyAll();
+        KThread[] remaining = workers.toArray(new KThread[workers.size()]);
+
+        Machine.interrupt().restore(intStatus);
+
+        for (int i=0; i<remaining.length; i++)
+            remaining[i].join();
+    }
+
+    /**
+     * Return the number of worker threads.
+     *
+     * @return	the number of workers currently in the pool.
+     */
+    public int getNumWorkers() {
+        return workers.size();
+    }
+
+    /**
+     * Return the number of tasks waiting for a worker.
+     *
+     * @return	the number of queued tasks.
+     */
+    public int getQueuedTasks() {
+        return tasks.size();
+    }
+
+    /**
+     * Return the number of worker threads this pool has ever started.
+     *
+     * @return	the number of <tt>KThread</tt>s forked by this pool.
+     */
+    public int getThreadsStarted() {
+        return threadsStarted;
+    }
+
+    /**
+     * Return the number of tasks run so far.
+     *
+     * @return	the number of tasks the workers have finished.
+     */
+    public int getTasksCompleted() {
+        return tasksCompleted;
+    }
+
+    /**
+     * Queue a task and hand it to an idle worker, or start a new worker if
+     * none is idle and the pool may grow. Must be called with interrupts
+     * disabled.
+     */
+    private void enqueue(KFuture future) {
+        Lib.assertTrue(!shutdown);
+
+        tasks.add(future);
+
+        KThread worker = idleWorkers.nextThread();
+        if (worker != null)
+            worker.ready();
+        else if (workers.size() < maxThreads)
+            startWorker();
+    }
+
+    private void startWorker() {
+        KThread worker = new KThread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }).setName("pool worker " + threadsStarted);
+
+        workers.add(worker);
+        threadsStarted++;
+        worker.fork();
+    }
+
+    /**
+     * The body of a worker thread: run queued tasks, and sleep while there
+     * are none. A worker beyond the minimum exits when it times out with
+     * nothing to do.
+     */
+    private void work() {
+        KThread self = KThread.currentThread();
+        boolean intStatus = Machine.interrupt().disable();
+
+        while (true) {
+            if (!tasks.isEmpty()) {
+                KFuture future = tasks.removeFirst();
+                KThread submitter = notFull.nextThread();
+                if (submitter != null)
+                    submitter.ready();
+
+                Machine.interrupt().restore(intStatus);
+                future.run();
+                intStatus = Machine.interrupt().disable();
+
+                tasksCompleted++;
+                continue;
+            }
+
+            if (shutdown)
+                break;
+
+            idleWorkers.waitForAccess(self);
+            if (workers.size() > minThreads) {
+                if (!ThreadedKernel.alarm.waitOn(idleWorkers, keepAliveTicks)
+                    && tasks.isEmpty() && workers.size() > minThreads)
+                    break;
+            }
+            else {
+                KThread.sleep();
+            }
+        }
+
+        workers.remove(self);
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        KThreadPoolTest.runall();
+    }
+
+    private int minThreads;
+    private int maxThreads;
+    private int queueCapacity;
+    private long keepAliveTicks;
+    private boolean shutdown = false;
+    private int threadsStarted = 0;
+    private int tasksCompleted = 0;
+
+    /** Tasks waiting for a worker, in submission order. */
+    private LinkedList<KFuture> tasks = new LinkedList<KFuture>();
+    /** Every worker that has not exited. */
+    private LinkedList<KThread> workers = new LinkedList<KThread>();
+    /** Workers waiting for a task. */
+    private ThreadQueue idleWorkers =
+        ThreadedKernel.scheduler.newThreadQueue(false);
+    /** Submitters waiting for room in the task queue. */
+    private ThreadQueue notFull =
+        ThreadedKernel.scheduler.newThreadQueue(false);
+}
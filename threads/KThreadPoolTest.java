@@ -0,0 +1,219 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the KThreadPool and KFuture classes, plus a benchmark comparing
+ * a pool with forking a thread per task.
+ */
+public class KThreadPoolTest {
+    /**
+     * Check that a fixed pool runs every task on its own workers and that
+     * joining the futures waits for the tasks.
+     */
+    public static boolean test1() {
+        KThreadPool pool = new KThreadPool(2, 4);
+        final int[] sum = new int[1];
+
+        KFuture[] futures = new KFuture[20];
+        for (int i=0; i<futures.length; i++) {
+            final int value = i;
+            futures[i] = pool.submit(new Runnable() {
+                public void run() {
+                    KThread.yield();
+                    sum[0] += value;
+                }
+            });
+        }
+
+        boolean allDone = true;
+        for (int i=0; i<futures.length; i++) {
+            futures[i].join();
+            allDone = allDone && futures[i].isDone();
+        }
+        boolean sumOk = (sum[0] == 19*20/2);
+        pool.shutdown();
+
+        return allDone && sumOk && pool.getThreadsStarted() == 2
+            && pool.getTasksCompleted() == futures.length
+            && pool.getNumWorkers() == 0;
+    }
+
+    /**
+     * Check that the task queue is bounded: with the only worker blocked,
+     * <tt>trySubmit()</tt> fails once the queue is full, and a timed join
+     * on a queued task times out.
+     */
+    public static boolean test2() {
+        KThreadPool pool = new KThreadPool(1, 2);
+        final Semaphore gate = new Semaphore(0);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                gate.P();
+            }
+        };
+        Runnable empty = new Runnable() {
+            public void run() {
+            }
+        };
+
+        KFuture first = pool.submit(blocked);
+        // let the worker take the first task off the queue
+        while (pool.getQueuedTasks() > 0)
+            KThread.yield();
+        KFuture queued = pool.trySubmit(empty);
+        boolean full = (queued != null) && (pool.trySubmit(empty) != null)
+            && (pool.trySubmit(empty) == null);
+        boolean timedOut = !queued.join(500);
+
+        gate.V();
+        first.join();
+        boolean finished = queued.join(20000);
+        pool.shutdown();
+
+        return full && timedOut && finished;
+    }
+
+    /**
+     * Check that an elastic pool grows up to its maximum under load and
+     * shrinks back to its minimum once the extra workers are idle.
+     */
+    public static boolean test3() {
+        KThreadPool pool = new KThreadPool(1, 3, 8, 1000);
+        final Semaphore gate = new Semaphore(0);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                gate.P();
+            }
+        };
+
+        KFuture[] futures = new KFuture[5];
+        for (int i=0; i<futures.length; i++)
+            futures[i] = pool.submit(blocked);
+        boolean grew = (pool.getNumWorkers() == 3);
+
+        for (int i=0; i<futures.length; i++)
+            gate.V();
+        for (int i=0; i<futures.length; i++)
+            futures[i].join();
+
+        ThreadedKernel.alarm.waitUntil(5000);
+        boolean shrank = (pool.getNumWorkers() == 1);
+        pool.shutdown();
+
+        return grew && shrank && pool.getThreadsStarted() == 3;
+    }
+
+    /**
+     * Check that shutting down a pool with a full queue wakes a submitter
+     * waiting for room, whose task is refused, while the task already
+     * queued still runs.
+     */
+    public static boolean test4() {
+        final KThreadPool pool = new KThreadPool(1, 1);
+        final Semaphore gate = new Semaphore(0);
+        Runnable blocked = new Runnable() {
+            public void run() {
+                gate.P();
+            }
+        };
+        final Runnable empty = new Runnable() {
+            public void run() {
+            }
+        };
+
+        KFuture first = pool.submit(blocked);
+        while (pool.getQueuedTasks() > 0)
+            KThread.yield();
+        KFuture queued = pool.submit(empty);
+
+        final KFuture[] refused = new KFuture[] { first };
+        KThread submitter = new KThread(new Runnable() {
+            public void run() {
+                refused[0] = pool.submit(empty);
+            }
+        }).setName("blocked submitter");
+        submitter.fork();
+        KThread.yield();
+
+        KThread closer = new KThread(new Runnable() {
+            public void run() {
+                pool.shutdown();
+            }
+        }).setName("pool closer");
+        closer.fork();
+
+        // the submitter gives up as soon as the pool is shut down, before
+        // the worker makes room
+        submitter.join();
+        boolean wasRefused = (refused[0] == null) && !queued.isDone();
+
+        gate.V();
+        closer.join();
+
+        return wasRefused && first.isDone() && queued.isDone()
+            && pool.trySubmit(empty) == null && pool.submit(empty) == null
+            && pool.getTasksCompleted() == 2 && pool.getNumWorkers() == 0;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        Lib.assertTrue(test3());
+        Lib.assertTrue(test4());
+        Lib.debug(dbgPool, "[ THREAD POOL TESTS ]: PASSED");
+    }
+
+    /**
+     * Run the same number of short tasks by forking and joining a
+     * <tt>KThread</tt> per task, and through a <tt>KThreadPool</tt>. Print
+     * the simulated ticks, the real time, and the number of threads each
+     * created.
+     */
+    public static void benchmark() {
+        final int numTasks = 200;
+        final int[] counter = new int[1];
+        Runnable task = new Runnable() {
+            public void run() {
+                counter[0]++;
+            }
+        };
+
+        long startTicks = Machine.timer().getTime();
+        long startNanos = System.nanoTime();
+        for (int i=0; i<numTasks; i++) {
+            KThread thread = new KThread(task).setName("bench task");
+            thread.fork();
+            thread.join();
+        }
+        report("fork per task", numTasks, startTicks, startNanos, numTasks);
+
+        KThreadPool pool = new KThreadPool(4, 16);
+        startTicks = Machine.timer().getTime();
+        startNanos = System.nanoTime();
+        KFuture last = null;
+        for (int i=0; i<numTasks; i++)
+            last = pool.submit(task);
+        last.join();
+        report("KThreadPool(4)", numTasks, startTicks, startNanos,
+               pool.getThreadsStarted());
+        pool.shutdown();
+
+        Lib.assertTrue(counter[0] == 2*numTasks);
+    }
+
+    private static void report(String what, int numTasks, long startTicks,
+                               long startNanos, int threads) {
+        long ticks = Machine.timer().getTime() - startTicks;
+        long micros = (System.nanoTime() - startNanos) / 1000;
+
+        System.out.println("[ BENCH ] " + what + ": " + numTasks
+                           + " tasks in " + ticks + " ticks ("
+                           + (ticks / numTasks) + " per task), "
+                           + micros + " us real time, "
+                           + threads + " threads created");
+    }
+
+    private static final char dbgPool = 'x';
+}
@@ -29,6 +29,12 @@ public class Lock {
     /**
      * Atomically acquire this lock. The current thread must not already hold
      * this lock.
+     *
+     * <p>
+     * If the lock is free, it is taken on a fast path that does not touch
+     * the wait queue. The wait queue is only told who holds the lock once
+     * another thread has to wait for it, so that priority donation still
+     * reaches the holder.
      */
     public void acquire() {
 	Lib.assertTrue(!isHeldByCurrentThread());
@@ -36,18 +42,80 @@ public class Lock {
 	boolean intStatus = Machine.interrupt().disable();
 	KThread thread = KThread.currentThread();
 
-	if (lockHolder != null) {
+	if (lockHolder == null) {
+	    lockHolder = thread;
+	    numFastAcquires++;
+	    totalFastAcquires++;
+	    if (profile != null)
+		profile.acquired(thread);
+	}
+	else {
+	    if (!queueKnowsHolder) {
+		waitQueue.acquire(lockHolder);
+		queueKnowsHolder = true;
+	    }
 	    waitQueue.waitForAccess(thread);
+	    if (profile != null)
+		profile.waiting(thread);
 	    KThread.sleep();
+	    numSlowAcquires++;
+	    totalSlowAcquires++;
 	}
-	else {
-	    waitQueue.acquire(thread);
+
+	Lib.assertTrue(lockHolder == thread);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Acquire this lock, waiting at most <i>ticks</i> clock ticks for it to
+     * become free. Does not wait at all if <i>ticks</i> is not positive. The
+     * current thread must not already hold this lock.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the lock was acquired, or <tt>false</tt> if
+     *		the wait timed out.
+     */
+    public boolean tryAcquire(long ticks) {
+	Lib.assertTrue(!isHeldByCurrentThread());
+
+	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
+	boolean acquired = true;
+
+	if (lockHolder == null) {
 	    lockHolder = thread;
+	    numFastAcquires++;
+	    totalFastAcquires++;
+	    if (profile != null)
+		profile.acquired(thread);
+	}
+	else if (ticks > 0) {
+	    if (!queueKnowsHolder) {
+		waitQueue.acquire(lockHolder);
+		queueKnowsHolder = true;
+	    }
+	    waitQueue.waitForAccess(thread);
+	    if (profile != null)
+		profile.waiting(thread);
+	    acquired = ThreadedKernel.alarm.waitOn(waitQueue, ticks);
+	    if (acquired) {
+		numSlowAcquires++;
+		totalSlowAcquires++;
+	    }
+	    else if (profile != null) {
+		profile.gaveUp(thread);
+	    }
+	}
+	else {
+	    acquired = false;
 	}
 
-	Lib.assertTrue(lockHolder == thread);
+	Lib.assertTrue(acquired == (lockHolder == thread));
 
 	Machine.interrupt().restore(intStatus);
+
+	return acquired;
     }
 
     /**
@@ -58,8 +126,21 @@ public class Lock {
 
 	boolean intStatus = Machine.interrupt().disable();
 
-	if ((lockHolder = waitQueue.nextThread()) != null)
+	if (profile != null)
+	    profile.released();
+
+	// nobody has waited since the lock was taken on the fast path
+	if (!queueKnowsHolder)
+	    lockHolder = null;
+	else if ((lockHolder = waitQueue.nextThread()) != null)
 	    lockHolder.ready();
+	else
+	    queueKnowsHolder = false;
+
+	if (profile != null && lockHolder != null) {
+	    profile.woken(lockHolder);
+	    profile.acquired(lockHolder);
+	}
 	
 	Machine.interrupt().restore(intStatus);
     }
@@ -73,7 +154,52 @@ public class Lock {
 	return (lockHolder == KThread.currentThread());
     }
 
+    /**
+     * Return the number of times this lock was acquired on the fast path.
+     *
+     * @return	the number of uncontended acquisitions.
+     */
+    public int getFastAcquires() {
+	return numFastAcquires;
+    }
+
+    /**
+     * Return the number of times this lock was acquired through the wait
+     * queue.
+     *
+     * @return	the number of contended acquisitions.
+     */
+    public int getSlowAcquires() {
+	return numSlowAcquires;
+    }
+
+    /**
+     * Return the number of fast-path acquisitions of all locks.
+     *
+     * @return	the number of uncontended acquisitions of any lock.
+     */
+    public static long getTotalFastAcquires() {
+	return totalFastAcquires;
+    }
+
+    /**
+     * Return the number of slow-path acquisitions of all locks.
+     *
+     * @return	the number of contended acquisitions of any lock.
+     */
+    public static long getTotalSlowAcquires() {
+	return totalSlowAcquires;
+    }
+
     private KThread lockHolder = null;
+    /** Whether <tt>waitQueue</tt> has been told who holds the lock. */
+    private boolean queueKnowsHolder = false;
+    private int numFastAcquires = 0;
+    private int numSlowAcquires = 0;
+    private static long totalFastAcquires = 0;
+    private static long totalSlowAcquires = 0;
     private ThreadQueue waitQueue =
 	ThreadedKernel.scheduler.newThreadQueue(true);
+    /** Contention profile, if profiling is on. */
+    LockProfiler.Site profile = LockProfiler.newSite("Lock", true);
 }
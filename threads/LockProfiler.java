@@ -0,0 +1,369 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * Contention profiling for the kernel's synchronization objects, and a
+ * wait-for-graph deadlock detector.
+ *
+ * <p>
+ * Every <tt>Lock</tt>, <tt>Semaphore</tt>, <tt>Condition</tt>,
+ * <tt>Condition2</tt> and <tt>KThread</tt> (for <tt>join()</tt>) created
+ * while profiling is on gets a <tt>Site</tt>. The object reports to its site
+ * when a thread starts waiting, stops waiting, acquires or releases it, with
+ * interrupts disabled. A site counts acquisitions, contended acquisitions
+ * and timeouts, and sums wait and hold times in ticks. Every count is also
+ * added to the totals for the site's kind.
+ *
+ * <p>
+ * Only the object refers to its site until a thread first has to wait on it.
+ * From then on the profiler keeps the site too, so that it can be reported
+ * on its own. The sites of objects that never had a waiter, usually most of
+ * them, are freed along with their objects, and only show up in the totals
+ * for their kind. At most <tt>maxSites</tt> sites are kept: when another
+ * object is first waited on, the kept site with the least wait time and no
+ * waiters is dropped to make room.
+ *
+ * <p>
+ * The sites also form a wait-for graph: a waiting thread points to the site
+ * it waits on, and a lock or joined thread points to the thread that holds
+ * it. <tt>findCycle()</tt> follows these edges. The idle thread calls
+ * <tt>idle()</tt>, which runs the detector whenever the graph has changed
+ * since the last check, and prints any cycle it finds.
+ *
+ * <p>
+ * Profiling is off unless <tt>ThreadedKernel.lockProfiler</tt> is set to
+ * <tt>true</tt> in the configuration file. Its output uses the same
+ * <tt>telemetry.</tt> line format as <tt>ThreadStats</tt>.
+ */
+public class LockProfiler {
+    /**
+     * Allocate a site for a new synchronization object, if profiling is on.
+     *
+     * @param	kind	what kind of object this is, e.g. <tt>"Lock"</tt>.
+     * @param	owned	<tt>true</tt> if the object has a holder that waiters
+     *			wait for, so that it is an edge in the wait-for graph.
+     * @return	the new site, or <tt>null</tt> if profiling is off.
+     */
+    static Site newSite(String kind, boolean owned) {
+        if (!enabled)
+            return null;
+
+        Site total = kinds.get(kind);
+        if (total == null) {
+            total = new Site(kind, owned, null);
+            kinds.put(kind, total);
+        }
+        total.sites++;
+
+        return new Site(kind + "#" + numSites++, owned, total);
+    }
+
+    /**
+     * The profile of one synchronization object. All methods must be called
+     * with interrupts disabled.
+     */
+    static class Site {
+        Site(String name, boolean owned, Site kind) {
+            this.name = name;
+            this.owned = owned;
+            this.kind = kind;
+        }
+
+        /**
+         * Record that <i>thread</i> has started waiting on this object.
+         */
+        void waiting(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            waiters.put(thread, new Long(Machine.timer().getTime()));
+            waitingOn.put(thread, this);
+            graphVersion++;
+
+            if (!listed)
+                keep(this);
+        }
+
+        /**
+         * Record that <i>thread</i> has stopped waiting because it was given
+         * the object, or woken.
+         */
+        void woken(KThread thread) {
+            if (endWait(thread)) {
+                contended++;
+                kind.contended++;
+            }
+        }
+
+        /**
+         * Record that <i>thread</i> has stopped waiting because its wait
+         * timed out.
+         */
+        void gaveUp(KThread thread) {
+            if (endWait(thread)) {
+                timeouts++;
+                kind.timeouts++;
+            }
+        }
+
+        /**
+         * Record that every waiting thread has been woken.
+         */
+        void wokenAll() {
+            KThread[] all = waiters.keySet().toArray(new KThread[0]);
+            for (int i=0; i<all.length; i++)
+                woken(all[i]);
+        }
+
+        /**
+         * Record that <i>thread</i> now holds (or has passed) this object.
+         */
+        void acquired(KThread thread) {
+            acquisitions++;
+            kind.acquisitions++;
+            if (owned) {
+                holder = thread;
+                holdStart = Machine.timer().getTime();
+                graphVersion++;
+            }
+        }
+
+        /**
+         * Record that the holder has released this object.
+         */
+        void released() {
+            if (owned && holder != null) {
+                long held = Machine.timer().getTime() - holdStart;
+                holdTicks += held;
+                maxHold = Math.max(maxHold, held);
+                kind.holdTicks += held;
+                kind.maxHold = Math.max(kind.maxHold, held);
+                holder = null;
+                graphVersion++;
+            }
+        }
+
+        private boolean endWait(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+
+            Long start = waiters.remove(thread);
+            if (start == null)
+                return false;
+
+            long waited = Machine.timer().getTime() - start.longValue();
+            waitTicks += waited;
+            maxWait = Math.max(maxWait, waited);
+            kind.waitTicks += waited;
+            kind.maxWait = Math.max(kind.maxWait, waited);
+            waitingOn.remove(thread);
+            graphVersion++;
+
+            return true;
+        }
+
+        String name;
+        boolean owned;
+        /** The totals for this site's kind, or <tt>null</tt> for a total. */
+        Site kind;
+        /** Whether this site is in <tt>contendedSites</tt>. */
+        boolean listed = false;
+        /** The number of sites of this kind, for a total. */
+        int sites = 0;
+        KThread holder = null;
+        long holdStart = 0;
+        int acquisitions = 0;
+        int contended = 0;
+        int timeouts = 0;
+        long waitTicks = 0;
+        long maxWait = 0;
+        long holdTicks = 0;
+        long maxHold = 0;
+        /** The threads waiting on this object, and when each started. */
+        HashMap<KThread, Long> waiters = new HashMap<KThread, Long>();
+    }
+
+    /**
+     * Add <i>site</i> to the sites reported on their own, dropping the least
+     * waited-on idle one if there are already <tt>maxSites</tt>.
+     */
+    private static void keep(Site site) {
+        if (contendedSites.size() >= maxSites) {
+            Site lightest = null;
+            for (Iterator<Site> i=contendedSites.iterator(); i.hasNext(); ) {
+                Site kept = i.next();
+                if (kept.waiters.isEmpty()
+                    && (lightest == null || kept.waitTicks < lightest.waitTicks))
+                    lightest = kept;
+            }
+            if (lightest != null) {
+                contendedSites.remove(lightest);
+                lightest.listed = false;
+            }
+        }
+
+        site.listed = true;
+        contendedSites.add(site);
+    }
+
+    /**
+     * Look for a cycle in the wait-for graph. Must be called with
+     * interrupts disabled.
+     *
+     * @return	a description of the first cycle found, naming each thread
+     *		and the object it waits for, or <tt>null</tt> if there is no
+     *		cycle.
+     */
+    public static String findCycle() {
+        Lib.assertTrue(Machine.interrupt().disabled());
+
+        HashSet<KThread> cleared = new HashSet<KThread>();
+
+        for (Iterator<KThread> i=waitingOn.keySet().iterator(); i.hasNext(); ) {
+            KThread start = i.next();
+            LinkedList<KThread> path = new LinkedList<KThread>();
+
+            KThread thread = start;
+            while (thread != null && !cleared.contains(thread)) {
+                int index = path.indexOf(thread);
+                if (index >= 0)
+                    return describe(path.subList(index, path.size()));
+
+                path.add(thread);
+                Site site = waitingOn.get(thread);
+                thread = (site == null) ? null : site.holder;
+            }
+
+            cleared.addAll(path);
+        }
+
+        return null;
+    }
+
+    private static String describe(java.util.List<KThread> cycle) {
+        StringBuffer buf = new StringBuffer();
+
+        for (Iterator<KThread> i=cycle.iterator(); i.hasNext(); ) {
+            KThread thread = i.next();
+            Site site = waitingOn.get(thread);
+            buf.append("\"" + thread.getName() + "\" -> " + site.name + " -> ");
+        }
+        buf.append("\"" + cycle.get(0).getName() + "\"");
+
+        return buf.toString();
+    }
+
+    /**
+     * Called by the idle thread each time it runs. If the wait-for graph has
+     * changed since the last check, look for a deadlock and print it.
+     */
+    static void idle() {
+        if (!enabled || graphVersion == checkedVersion)
+            return;
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        checkedVersion = graphVersion;
+        String cycle = findCycle();
+        if (cycle != null && !cycle.equals(lastCycle)) {
+            System.out.println("telemetry.deadlock time="
+                               + Machine.timer().getTime()
+                               + " cycle=" + cycle);
+            numDeadlocks++;
+        }
+        lastCycle = cycle;
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of distinct deadlocks the idle thread has reported.
+     *
+     * @return	the number of cycles printed by <tt>idle()</tt>.
+     */
+    public static int getDeadlocksReported() {
+        return numDeadlocks;
+    }
+
+    /**
+     * Print one line per kind of synchronization object, then one line per
+     * kept site, most waited-on first. Must be called with interrupts
+     * disabled.
+     */
+    public static void print() {
+        if (!enabled)
+            return;
+
+        for (Iterator<Site> i=kinds.values().iterator(); i.hasNext(); ) {
+            Site total = i.next();
+            if (total.acquisitions == 0 && total.waitTicks == 0)
+                continue;
+
+            System.out.println("telemetry.contentionkind kind=" + total.name
+                               + " sites=" + total.sites
+                               + counts(total));
+        }
+
+        Site[] sites = contendedSites.toArray(new Site[contendedSites.size()]);
+        java.util.Arrays.sort(sites, new java.util.Comparator<Site>() {
+            public int compare(Site a, Site b) {
+                if (a.waitTicks != b.waitTicks)
+                    return (a.waitTicks > b.waitTicks) ? -1 : 1;
+                return b.acquisitions - a.acquisitions;
+            }
+        });
+
+        for (int i=0; i<sites.length; i++) {
+            Site site = sites[i];
+            System.out.println("telemetry.contention site=" + site.name
+                               + " waiting=" + site.waiters.size()
+                               + counts(site));
+        }
+    }
+
+    private static String counts(Site site) {
+        String line = " acquires=" + site.acquisitions
+            + " contended=" + site.contended
+            + " timeouts=" + site.timeouts
+            + " wait=" + site.waitTicks
+            + " maxwait=" + site.maxWait;
+        if (site.owned)
+            line += " hold=" + site.holdTicks + " maxhold=" + site.maxHold;
+        return line;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        LockProfilerTest.runall();
+    }
+
+    /**
+     * Whether profiling is on. Set from <tt>ThreadedKernel.lockProfiler</tt>
+     * before the first thread is created.
+     */
+    static boolean enabled = false;
+
+    /** The site each waiting thread is waiting on. */
+    private static HashMap<KThread, Site> waitingOn =
+        new HashMap<KThread, Site>();
+    /** The most sites reported on their own. */
+    public static final int maxSites = 64;
+
+    /** The most waited-on sites that a thread has had to wait on. */
+    private static LinkedList<Site> contendedSites = new LinkedList<Site>();
+    /** The totals for each kind of site, by kind. */
+    private static LinkedHashMap<String, Site> kinds =
+        new LinkedHashMap<String, Site>();
+    private static int numSites = 0;
+    private static long graphVersion = 0;
+    private static long checkedVersion = 0;
+    private static String lastCycle = null;
+    private static int numDeadlocks = 0;
+}
@@ -0,0 +1,141 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for <tt>LockProfiler</tt>. Profiling is switched on for the duration
+ * of each test, so only the objects created by the test are profiled.
+ */
+public class LockProfilerTest {
+    /**
+     * Build a lock-order deadlock between two threads, one of which gives up
+     * after a timeout, and check that the detector reports both threads and
+     * both locks while the cycle exists, and nothing once it is broken.
+     */
+    public static boolean test1() {
+        final Lock first = new Lock();
+        final Lock second = new Lock();
+        final Semaphore firstHeld = new Semaphore(0);
+        final Semaphore secondHeld = new Semaphore(0);
+        final boolean[] gotSecond = new boolean[1];
+
+        KThread a = new KThread(new Runnable() {
+            public void run() {
+                first.acquire();
+                firstHeld.V();
+                secondHeld.P();
+                gotSecond[0] = second.tryAcquire(3000);
+                if (gotSecond[0])
+                    second.release();
+                first.release();
+            }
+        }).setName("profiler A");
+
+        KThread b = new KThread(new Runnable() {
+            public void run() {
+                firstHeld.P();
+                second.acquire();
+                secondHeld.V();
+                first.acquire();
+                first.release();
+                second.release();
+            }
+        }).setName("profiler B");
+
+        a.fork();
+        b.fork();
+
+        String cycle = null;
+        for (int i=0; i<100 && cycle == null; i++) {
+            KThread.yield();
+            boolean intStatus = Machine.interrupt().disable();
+            cycle = LockProfiler.findCycle();
+            Machine.interrupt().restore(intStatus);
+        }
+
+        // keep the main thread runnable, so the idle thread stays quiet
+        while (!a.join(0))
+            KThread.yield();
+        b.join();
+
+        boolean intStatus = Machine.interrupt().disable();
+        String after = LockProfiler.findCycle();
+        Machine.interrupt().restore(intStatus);
+
+        return cycle != null
+            && cycle.indexOf("\"profiler A\"") >= 0
+            && cycle.indexOf("\"profiler B\"") >= 0
+            && cycle.indexOf("Lock#") >= 0
+            && !gotSecond[0] && after == null;
+    }
+
+    /**
+     * Check that a site counts acquisitions, contention, timeouts and wait
+     * and hold times.
+     */
+    public static boolean test2() {
+        final Lock lock = new Lock();
+        final Semaphore sem = new Semaphore(0);
+
+        KThread holder = new KThread(new Runnable() {
+            public void run() {
+                lock.acquire();
+                ThreadedKernel.alarm.waitUntil(500);
+                lock.release();
+            }
+        }).setName("profiler holder");
+        holder.fork();
+        KThread.yield();
+
+        lock.acquire();
+        lock.release();
+        sem.tryP(200);
+        sem.V();
+        sem.P();
+        holder.join();
+
+        LockProfiler.Site lockSite = lock.profile;
+        LockProfiler.Site semSite = sem.profile;
+
+        return lockSite.listed && semSite.listed
+            && lockSite.acquisitions == 2 && lockSite.contended == 1
+            && lockSite.waitTicks > 0 && lockSite.holdTicks >= 500
+            && lockSite.holder == null && lockSite.waiters.isEmpty()
+            && semSite.acquisitions == 1 && semSite.timeouts == 1
+            && semSite.waitTicks >= 200;
+    }
+
+    /**
+     * Check that an object nobody waited on is left out of the profiler's
+     * sites, but still counted in the totals for its kind.
+     */
+    public static boolean test3() {
+        Lock lock = new Lock();
+        LockProfiler.Site site = lock.profile;
+        int acquisitions = site.kind.acquisitions;
+
+        lock.acquire();
+        lock.release();
+        lock.acquire();
+        lock.release();
+
+        return !site.listed && site.acquisitions == 2
+            && site.kind.acquisitions == acquisitions + 2
+            && site.kind.holdTicks >= site.holdTicks;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        boolean wasEnabled = LockProfiler.enabled;
+        LockProfiler.enabled = true;
+
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        Lib.assertTrue(test3());
+
+        LockProfiler.enabled = wasEnabled;
+        Lib.debug(dbgProfiler, "[ LOCK PROFILER TESTS ]: PASSED");
+    }
+
+    private static final char dbgProfiler = 'x';
+}
@@ -138,6 +138,7 @@ public class PriorityScheduler extends Scheduler {
         public void waitForAccess(KThread thread) {
             Lib.assertTrue(Machine.interrupt().disabled());
             getThreadState(thread).waitForAccess(this);
+            countWaiter();
         }
 
         /** Dump contents of this queue */
@@ -192,6 +193,54 @@ public class PriorityScheduler extends Scheduler {
             getThreadState(thread).acquire(this);
         }
 
+        public boolean removeWaiter(KThread thread) {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            ThreadState outThread = getThreadState(thread);
+
+            if(!outThread.queuesThisThreadIsOn.contains(this))
+                return false;
+
+            Lib.assertTrue(arrayOfQueues[outThread.getEffectivePriority()].remove(outThread), "ERROR: "+thread
+                +" thinks it's on "+queueID+" but the queue feels differently");
+            outThread.deleteQueueFromThreadDB(this);
+            uncountWaiter();
+
+            /*
+             * Withdraw the donation outThread made to our resourceHolder, unless it is still waiting for
+             * resourceHolder on some other queue (the same rule nextThread() uses when revoking).
+             */
+            if(resourceHolder != null && outThread.threadsDonatedTo.contains(resourceHolder))
+            {
+                boolean okayToRevoke = true;
+                for(PriorityQueue queue : outThread.queuesThisThreadIsOn)
+                    okayToRevoke = okayToRevoke && queue.resourceHolder != resourceHolder;
+
+                if(okayToRevoke)
+                    resourceHolder.revokeDonation(outThread);
+            }
+            Lib.debug(dbgPSched, "[ removeWaiter ]: Removed "+thread+" from "+queueID);
+            return true;
+        }
+
+        /**
+         * Ready every waiting thread in priority order. Each one is simply removed, rather than being made
+         * resourceHolder in turn by nextThread() and receiving (then losing) donations from the rest.
+         */
+        @Override
+        public int readyAll() {
+            Lib.assertTrue(Machine.interrupt().disabled());
+            int count = 0;
+            ThreadState next;
+
+            while((next = pickNextThread()) != null) {
+                removeWaiter(next.thread);
+                next.thread.ready();
+                count++;
+            }
+            resourceHolder = null;
+            return count;
+        }
+
         public KThread nextThread() {
             Lib.assertTrue(Machine.interrupt().disabled());
             int i = priorityMaximum;
@@ -294,6 +343,7 @@ public class PriorityScheduler extends Scheduler {
                 }
                 outThread = arrayOfQueues[i].removeFirst();
                 Lib.assertTrue(sanityThread == outThread);
+                uncountWaiter();
 
                 /* outThread has been chosen from this queue so remove this queue from outThread's database of queues that it's on */
                 outThread.deleteQueueFromThreadDB(this);
@@ -0,0 +1,160 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>ReadWriteLock</tt> lets any number of threads hold it for reading at
+ * the same time, or one thread hold it for writing.
+ *
+ * <p>
+ * Writers are preferred: once a writer is waiting, new readers wait behind
+ * it, so a steady stream of readers cannot starve writers. When a writer
+ * releases the lock, the next waiting writer gets it; only when no writer is
+ * waiting are all waiting readers let in at once.
+ *
+ * <p>
+ * If the lock is created with <tt>transferPriority</tt> set, waiting writers
+ * donate priority to the writer holding the lock, just as with a
+ * <tt>Lock</tt>. Readers never donate, and nothing is donated to readers,
+ * since there may be many of them.
+ */
+public class ReadWriteLock {
+    /**
+     * Allocate a new reader-writer lock that does not transfer priority.
+     */
+    public ReadWriteLock() {
+        this(false);
+    }
+
+    /**
+     * Allocate a new reader-writer lock.
+     *
+     * @param	transferPriority	<tt>true</tt> if waiting writers
+     *					should donate priority to the writer
+     *					holding the lock.
+     */
+    public ReadWriteLock(boolean transferPriority) {
+        writerQueue = ThreadedKernel.scheduler.newThreadQueue(transferPriority);
+        readerQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+    }
+
+    /**
+     * Acquire this lock for reading, waiting while a writer holds it or is
+     * waiting for it.
+     */
+    public void acquireRead() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (writer == null && waitingWriters == 0) {
+            readers++;
+        }
+        else {
+            readerQueue.waitForAccess(KThread.currentThread());
+            KThread.sleep();
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Release this lock after reading. The last reader out hands the lock to
+     * the first waiting writer.
+     */
+    public void releaseRead() {
+        boolean intStatus = Machine.interrupt().disable();
+
+        Lib.assertTrue(readers > 0);
+        readers--;
+
+        if (readers == 0 && waitingWriters > 0)
+            wakeWriter();
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Acquire this lock for writing, waiting until no other thread holds it.
+     */
+    public void acquireWrite() {
+        Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+        KThread thread = KThread.currentThread();
+
+        if (writer == null && readers == 0) {
+            writerQueue.acquire(thread);
+            writer = thread;
+        }
+        else {
+            waitingWriters++;
+            writerQueue.waitForAccess(thread);
+            KThread.sleep();
+        }
+
+        Lib.assertTrue(writer == thread);
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Release this lock after writing. Gives it to the next waiting writer
+     * if there is one, and otherwise to every waiting reader.
+     */
+    public void releaseWrite() {
+        Lib.assertTrue(isWriteHeldByCurrentThread());
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        writer = null;
+        if (waitingWriters > 0) {
+            wakeWriter();
+        }
+        else {
+            // let the queue forget its holder, so no one donates to it
+            KThread next = writerQueue.nextThread();
+            Lib.assertTrue(next == null);
+
+            readers += readerQueue.readyAll();
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Test if the current thread holds this lock for writing.
+     *
+     * @return	true if the current thread holds this lock for writing.
+     */
+    public boolean isWriteHeldByCurrentThread() {
+        return writer == KThread.currentThread();
+    }
+
+    /**
+     * Return the number of threads holding this lock for reading.
+     *
+     * @return	the number of readers.
+     */
+    public int getReaders() {
+        return readers;
+    }
+
+    private void wakeWriter() {
+        writer = writerQueue.nextThread();
+        Lib.assertTrue(writer != null);
+        waitingWriters--;
+        writer.ready();
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        ReadWriteLockTest.runall();
+    }
+
+    private KThread writer = null;
+    private int readers = 0;
+    private int waitingWriters = 0;
+    private ThreadQueue writerQueue;
+    private ThreadQueue readerQueue;
+}
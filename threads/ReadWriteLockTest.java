@@ -0,0 +1,291 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for the ReadWriteLock class, plus a benchmark comparing readers
+ * sharing a <tt>ReadWriteLock</tt> with readers serialized by a plain
+ * <tt>Lock</tt>.
+ */
+public class ReadWriteLockTest {
+    /**
+     * Check that readers hold the lock at the same time: each reader stays
+     * inside until every reader has entered.
+     */
+    public static boolean test1() {
+        final ReadWriteLock rw = new ReadWriteLock();
+        final int numReaders = 4;
+        final int[] inside = new int[1];
+        final int[] maxInside = new int[1];
+
+        KThread[] readers = new KThread[numReaders];
+        for (int i=0; i<numReaders; i++) {
+            readers[i] = new KThread(new Runnable() {
+                public void run() {
+                    rw.acquireRead();
+                    inside[0]++;
+                    maxInside[0] = Math.max(maxInside[0], inside[0]);
+                    for (int j=0; j<20 && maxInside[0] < numReaders; j++)
+                        KThread.yield();
+                    inside[0]--;
+                    rw.releaseRead();
+                }
+            }).setName("reader" + i);
+            readers[i].fork();
+        }
+        for (int i=0; i<numReaders; i++)
+            readers[i].join();
+
+        return maxInside[0] == numReaders && rw.getReaders() == 0;
+    }
+
+    /**
+     * Check writer preference: a reader that arrives while a writer is
+     * waiting gets in only after that writer.
+     */
+    public static boolean test2() {
+        final ReadWriteLock rw = new ReadWriteLock();
+        final ArrayList<String> log = new ArrayList<String>();
+
+        rw.acquireRead();
+
+        KThread writer = new KThread(new Runnable() {
+            public void run() {
+                rw.acquireWrite();
+                log.add("writer");
+                rw.releaseWrite();
+            }
+        }).setName("waiting writer");
+        KThread reader = new KThread(new Runnable() {
+            public void run() {
+                rw.acquireRead();
+                log.add("reader");
+                rw.releaseRead();
+            }
+        }).setName("late reader");
+
+        writer.fork();
+        KThread.yield();
+        reader.fork();
+        KThread.yield();
+
+        // both must still be waiting behind our read hold
+        boolean blocked = log.isEmpty();
+
+        rw.releaseRead();
+        writer.join();
+        reader.join();
+
+        return blocked && log.size() == 2
+            && log.get(0).equals("writer") && log.get(1).equals("reader");
+    }
+
+    /**
+     * Check that writers exclude each other and readers: readers never see
+     * a half-finished update of two values that writers keep equal.
+     */
+    public static boolean test3() {
+        final ReadWriteLock rw = new ReadWriteLock();
+        final int[] pair = new int[2];
+        final boolean[] torn = new boolean[1];
+
+        KThread[] threads = new KThread[6];
+        for (int i=0; i<threads.length; i++) {
+            if (i % 2 == 0) {
+                threads[i] = new KThread(new Runnable() {
+                    public void run() {
+                        for (int j=0; j<10; j++) {
+                            rw.acquireWrite();
+                            pair[0]++;
+                            KThread.yield();
+                            pair[1]++;
+                            rw.releaseWrite();
+                        }
+                    }
+                }).setName("writer" + i);
+            }
+            else {
+                threads[i] = new KThread(new Runnable() {
+                    public void run() {
+                        for (int j=0; j<10; j++) {
+                            rw.acquireRead();
+                            int first = pair[0];
+                            KThread.yield();
+                            if (pair[0] != first || pair[1] != first)
+                                torn[0] = true;
+                            rw.releaseRead();
+                        }
+                    }
+                }).setName("reader" + i);
+            }
+        }
+        for (int i=0; i<threads.length; i++)
+            threads[i].fork();
+        for (int i=0; i<threads.length; i++)
+            threads[i].join();
+
+        return !torn[0] && pair[0] == 30 && pair[1] == 30;
+    }
+
+    /**
+     * Check that a waiting writer donates its priority to the writer holding
+     * the lock only when the lock transfers priority. Only meaningful under
+     * <tt>PriorityScheduler</tt>.
+     */
+    public static boolean test4(boolean transferPriority) {
+        final ReadWriteLock rw = new ReadWriteLock(transferPriority);
+        final boolean[] holding = new boolean[1];
+
+        KThread low = new KThread(new Runnable() {
+            public void run() {
+                rw.acquireWrite();
+                holding[0] = true;
+                ThreadedKernel.alarm.waitUntil(2000);
+                rw.releaseWrite();
+            }
+        }).setName("low writer");
+        KThread high = new KThread(new Runnable() {
+            public void run() {
+                rw.acquireWrite();
+                rw.releaseWrite();
+            }
+        }).setName("high writer");
+
+        // low runs at our priority, so that our yields let it in
+        boolean intStatus = Machine.interrupt().disable();
+        ThreadedKernel.scheduler.setPriority(high,
+                                             PriorityScheduler.priorityMaximum);
+        Machine.interrupt().restore(intStatus);
+
+        low.fork();
+        while (!holding[0])
+            KThread.yield();
+        high.fork();
+        KThread.yield();
+
+        intStatus = Machine.interrupt().disable();
+        int effective = ThreadedKernel.scheduler.getEffectivePriority(low);
+        Machine.interrupt().restore(intStatus);
+
+        high.join();
+        low.join();
+
+        if (transferPriority)
+            return effective == PriorityScheduler.priorityMaximum;
+        else
+            return effective == PriorityScheduler.priorityDefault;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        Lib.assertTrue(test3());
+        if (ThreadedKernel.scheduler instanceof PriorityScheduler) {
+            Lib.assertTrue(test4(true));
+            Lib.assertTrue(test4(false));
+        }
+        Lib.debug(dbgRWLock, "[ READ-WRITE LOCK TESTS ]: PASSED");
+    }
+
+    /**
+     * Run readers that hold the lock across a simulated I/O wait, with one
+     * writer updating occasionally, first under a <tt>ReadWriteLock</tt> and
+     * then under a plain <tt>Lock</tt>. Print the ticks each took and how
+     * many readers were inside at once.
+     */
+    public static void benchmark() {
+        final ReadWriteLock rw = new ReadWriteLock();
+        long[] result = measure(new Runnable() {
+            public void run() {
+                rw.acquireRead();
+                readSection();
+                rw.releaseRead();
+            }
+        }, new Runnable() {
+            public void run() {
+                rw.acquireWrite();
+                writeSection();
+                rw.releaseWrite();
+            }
+        });
+        report("ReadWriteLock", result);
+
+        final Lock lock = new Lock();
+        result = measure(new Runnable() {
+            public void run() {
+                lock.acquire();
+                readSection();
+                lock.release();
+            }
+        }, new Runnable() {
+            public void run() {
+                lock.acquire();
+                writeSection();
+                lock.release();
+            }
+        });
+        report("Lock", result);
+    }
+
+    private static void readSection() {
+        inside++;
+        maxInside = Math.max(maxInside, inside);
+        ThreadedKernel.alarm.waitUntil(readTicks);
+        inside--;
+    }
+
+    private static void writeSection() {
+        ThreadedKernel.alarm.waitUntil(readTicks / 4);
+    }
+
+    private static long[] measure(final Runnable read, final Runnable write) {
+        inside = 0;
+        maxInside = 0;
+        long startTicks = Machine.timer().getTime();
+
+        KThread[] threads = new KThread[numReaders + 1];
+        for (int i=0; i<numReaders; i++) {
+            threads[i] = new KThread(new Runnable() {
+                public void run() {
+                    for (int j=0; j<rounds; j++)
+                        read.run();
+                }
+            }).setName("bench reader" + i);
+        }
+        threads[numReaders] = new KThread(new Runnable() {
+            public void run() {
+                for (int j=0; j<rounds/4; j++) {
+                    write.run();
+                    KThread.yield();
+                }
+            }
+        }).setName("bench writer");
+
+        for (int i=0; i<threads.length; i++)
+            threads[i].fork();
+        for (int i=0; i<threads.length; i++)
+            threads[i].join();
+
+        return new long[] { Machine.timer().getTime() - startTicks, maxInside };
+    }
+
+    private static void report(String what, long[] result) {
+        int reads = numReaders * rounds;
+        System.out.println("[ BENCH ] " + what + ": " + reads + " reads by "
+                           + numReaders + " readers, " + (rounds/4)
+                           + " writes, in " + result[0] + " ticks ("
+                           + (result[0] / reads) + " per read), "
+                           + "up to " + result[1] + " readers at once");
+    }
+
+    private static final int numReaders = 8;
+    private static final int rounds = 20;
+    private static final long readTicks = 500;
+    private static int inside;
+    private static int maxInside;
+
+    private static final char dbgRWLock = 'x';
+}
@@ -40,6 +40,7 @@ public class RoundRobinScheduler extends Scheduler {
 	    Lib.assertTrue(Machine.interrupt().disabled());
 		       
 	    waitQueue.add(thread);
+	    countWaiter();
 	}
 
 	/**
@@ -55,6 +56,7 @@ public class RoundRobinScheduler extends Scheduler {
 	    if (waitQueue.isEmpty())
 		return null;
 
+	    uncountWaiter();
 	    return (KThread) waitQueue.removeFirst();
 	}
 
@@ -69,6 +71,22 @@ public class RoundRobinScheduler extends Scheduler {
 	    Lib.assertTrue(waitQueue.isEmpty());
 	}
 
+	/**
+	 * Remove a waiting thread from wherever it is in the queue.
+	 *
+	 * @param	thread	the thread to remove.
+	 * @return	<tt>true</tt> if the thread was on the queue.
+	 */
+	public boolean removeWaiter(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (!waitQueue.remove(thread))
+		return false;
+
+	    uncountWaiter();
+	    return true;
+	}
+
 	/**
 	 * Print out the contents of the queue.
 	 */
@@ -131,6 +131,55 @@ public abstract class Scheduler {
 	setPriority(KThread.currentThread(), priority);
     }
 
+    /**
+     * Notify this scheduler that the specified thread is about to receive the
+     * processor. Called by <tt>KThread.restoreState()</tt> with interrupts
+     * disabled. Schedulers that account for processor usage can record the
+     * current time here.
+     *
+     * @param	thread	the thread that is about to run.
+     */
+    public void runningThread(KThread thread) {
+    }
+
+    /**
+     * Notify this scheduler that the specified thread is about to give up the
+     * processor. Called by <tt>KThread.run()</tt> with interrupts disabled,
+     * before the context switch.
+     *
+     * @param	thread	the thread that is giving up the processor.
+     */
+    public void stoppingThread(KThread thread) {
+    }
+
+    /**
+     * Notify this scheduler that the specified thread is about to be put back
+     * on the ready queue by <tt>KThread.yield()</tt>. Called with interrupts
+     * disabled.
+     *
+     * @param	thread	the thread that is yielding.
+     */
+    public void yieldingThread(KThread thread) {
+    }
+
+    /**
+     * Notify this scheduler that the specified thread is about to be
+     * preempted by the timer, as opposed to calling <tt>KThread.yield()</tt>
+     * itself. Called by <tt>Alarm.timerInterrupt()</tt> with interrupts
+     * disabled, just before it makes the thread yield.
+     *
+     * @param	thread	the thread that is being preempted.
+     */
+    public void preemptingThread(KThread thread) {
+    }
+
+    /**
+     * Print any statistics this scheduler has collected. Called by
+     * <tt>ThreadedKernel.terminate()</tt> just before the machine halts.
+     */
+    public void printStats() {
+    }
+
     /**
      * If possible, raise the priority of the current thread in some
      * scheduler-dependent way.
@@ -2,6 +2,8 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.util.HashMap;
+
 /**
  * A <tt>Semaphore</tt> is a synchronization primitive with an unsigned value.
  * A semaphore has only two operations:
@@ -28,24 +30,123 @@ public class Semaphore {
      * @param	initialValue	the initial value of this semaphore.
      */
     public Semaphore(int initialValue) {
+	this(initialValue, true, "Semaphore");
+    }
+
+    /**
+     * Allocate a new semaphore, choosing the order its waiters are served
+     * in.
+     *
+     * @param	initialValue	the initial value of this semaphore.
+     * @param	priorityOrder	<tt>true</tt> to keep waiters on a queue from
+     *				the kernel's scheduler, so that they are served
+     *				in priority order under a priority scheduler;
+     *				<tt>false</tt> to serve them strictly in the
+     *				order they started waiting.
+     */
+    public Semaphore(int initialValue, boolean priorityOrder) {
+	this(initialValue, priorityOrder, "Semaphore");
+    }
+
+    /**
+     * Allocate a new semaphore, profiled under <i>kind</i>.
+     *
+     * @param	initialValue	the initial value of this semaphore.
+     * @param	kind		the name to profile this semaphore under, or
+     *				<tt>null</tt> if the caller profiles it.
+     */
+    Semaphore(int initialValue, String kind) {
+	this(initialValue, true, kind);
+    }
+
+    private Semaphore(int initialValue, boolean priorityOrder, String kind) {
+	Lib.assertTrue(initialValue >= 0);
+
 	value = initialValue;
+	if (priorityOrder)
+	    waitQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+	else
+	    waitQueue = fifoScheduler.newThreadQueue(false);
+	if (kind != null)
+	    profile = LockProfiler.newSite(kind, false);
     }
 
     /**
      * Atomically wait for this semaphore to become non-zero and decrement it.
      */
     public void P() {
+	P(1);
+    }
+
+    /**
+     * Atomically wait until this semaphore is at least <i>n</i> and subtract
+     * <i>n</i> from it. Waiters are served in queue order, and one that needs
+     * more than is available holds up the waiters behind it, so a large
+     * request is not starved by a stream of small ones.
+     *
+     * @param	n	the number of units to take.
+     */
+    public void P(int n) {
+	Lib.assertTrue(n >= 0);
+
 	boolean intStatus = Machine.interrupt().disable();
+	KThread thread = KThread.currentThread();
 
-	if (value == 0) {
-	    waitQueue.waitForAccess(KThread.currentThread());
-	    KThread.sleep();
+	// a positive value with nobody blocked means the wait queue is empty
+	if (blocked == null && value >= n) {
+	    value -= n;
+	    if (profile != null)
+		profile.acquired(thread);
 	}
 	else {
+	    if (n != 1)
+		needed.put(thread, new Integer(n));
+	    // with units left over and nobody blocked, this thread is first
+	    if (blocked == null && value > 0)
+		blocked = thread;
+	    else
+		waitQueue.waitForAccess(thread);
+	    if (profile != null)
+		profile.waiting(thread);
+	    KThread.sleep();
+	}
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Wait at most <i>ticks</i> clock ticks for this semaphore to become
+     * non-zero, and decrement it if it does. Does not wait at all if
+     * <i>ticks</i> is not positive.
+     *
+     * @param	ticks	the maximum number of clock ticks to wait.
+     * @return	<tt>true</tt> if the semaphore was decremented, or
+     *		<tt>false</tt> if the wait timed out.
+     */
+    public boolean tryP(long ticks) {
+	boolean intStatus = Machine.interrupt().disable();
+	boolean decremented = true;
+
+	if (blocked == null && value > 0) {
 	    value--;
+	    if (profile != null)
+		profile.acquired(KThread.currentThread());
+	}
+	else if (ticks > 0) {
+	    waitQueue.waitForAccess(KThread.currentThread());
+	    if (profile != null)
+		profile.waiting(KThread.currentThread());
+	    decremented = ThreadedKernel.alarm.waitOn(waitQueue, ticks);
+	    if (!decremented && profile != null)
+		profile.gaveUp(KThread.currentThread());
+	}
+	else {
+	    decremented = false;
 	}
 
 	Machine.interrupt().restore(intStatus);
+
+	return decremented;
     }
 
     /**
@@ -53,17 +154,53 @@ public class Semaphore {
      * sleeping on this semaphore.
      */
     public void V() {
+	V(1);
+    }
+
+    /**
+     * Atomically add <i>n</i> to this semaphore and wake every waiter the new
+     * value can satisfy, in one critical section, instead of one
+     * interrupt disable and restore per unit.
+     *
+     * @param	n	the number of units to add.
+     * @return	the number of threads woken.
+     */
+    public int V(int n) {
+	Lib.assertTrue(n >= 0);
+
 	boolean intStatus = Machine.interrupt().disable();
 
-	KThread thread = waitQueue.nextThread();
-	if (thread != null) {
+	value += n;
+
+	int woken = 0;
+	while (value > 0) {
+	    KThread thread = blocked;
+	    if (thread == null && (thread = waitQueue.nextThread()) == null)
+		break;
+
+	    Integer need = needed.get(thread);
+	    int units = (need == null) ? 1 : need.intValue();
+	    if (units > value) {
+		// first in line; nobody behind it goes ahead
+		blocked = thread;
+		break;
+	    }
+
+	    blocked = null;
+	    if (need != null)
+		needed.remove(thread);
+	    value -= units;
 	    thread.ready();
+	    woken++;
+	    if (profile != null) {
+		profile.woken(thread);
+		profile.acquired(thread);
+	    }
 	}
-	else {
-	    value++;
-	}
-	
+
 	Machine.interrupt().restore(intStatus);
+
+	return woken;
     }
 
     private static class PingTest implements Runnable {
@@ -99,6 +236,16 @@ public class Semaphore {
     }
 
     private int value;
-    private ThreadQueue waitQueue =
-	ThreadedKernel.scheduler.newThreadQueue(false);
+    private ThreadQueue waitQueue;
+    /**
+     * A waiter taken off <tt>waitQueue</tt> that needs more units than are
+     * available. It is served before anyone still on the queue.
+     */
+    private KThread blocked = null;
+    /** The units each waiter in <tt>P(int)</tt> needs, if more than one. */
+    private HashMap<KThread, Integer> needed = new HashMap<KThread, Integer>();
+    /** Supplies arrival-order queues regardless of the kernel's scheduler. */
+    private static final Scheduler fifoScheduler = new RoundRobinScheduler();
+    /** Contention profile, if profiling is on. */
+    LockProfiler.Site profile = null;
 }
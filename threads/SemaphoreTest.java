@@ -0,0 +1,195 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the batch operations <tt>Semaphore.P(int)</tt> and
+ * <tt>Semaphore.V(int)</tt>, plus a benchmark comparing <tt>V(int)</tt> with
+ * a loop of <tt>V()</tt> calls.
+ */
+public class SemaphoreTest {
+    /**
+     * Fork a thread that takes <i>n</i> units from <i>sem</i> and then counts
+     * itself in <i>done</i>.
+     */
+    private static KThread taker(final Semaphore sem, final int n,
+                                 final int[] done, String name) {
+        KThread thread = new KThread(new Runnable() {
+            public void run() {
+                sem.P(n);
+                done[0]++;
+            }
+        }).setName(name);
+        thread.fork();
+        return thread;
+    }
+
+    /**
+     * Check that one <tt>V(int)</tt> wakes every waiter it can satisfy and
+     * keeps the units left over.
+     */
+    public static boolean test1() {
+        Semaphore sem = new Semaphore(0);
+        int[] done = new int[1];
+
+        KThread[] takers = new KThread[3];
+        for (int i=0; i<takers.length; i++)
+            takers[i] = taker(sem, 2, done, "batch taker " + i);
+        KThread.yield();
+
+        if (sem.V(5) != 2)
+            return false;
+        for (int i=0; i<2; i++)
+            takers[i].join();
+        KThread.yield();
+        boolean held = (done[0] == 2);
+
+        // one unit left over, so a single V() is enough for the last taker
+        sem.V();
+        takers[2].join();
+
+        return held && done[0] == 3 && !sem.tryP(0);
+    }
+
+    /**
+     * Check that a waiter needing more units than are available holds up
+     * smaller requests behind it, and is served first once enough arrive.
+     */
+    public static boolean test2() {
+        Semaphore sem = new Semaphore(1, false);
+        int[] bigDone = new int[1];
+        int[] smallDone = new int[1];
+
+        KThread big = taker(sem, 3, bigDone, "big taker");
+        KThread.yield();
+        KThread small = taker(sem, 1, smallDone, "small taker");
+        KThread.yield();
+
+        // the small request must not go ahead of the big one
+        boolean queued = (bigDone[0] == 0 && smallDone[0] == 0
+                          && !sem.tryP(0));
+
+        sem.V();
+        KThread.yield();
+        boolean stillQueued = (bigDone[0] == 0 && smallDone[0] == 0);
+
+        // the third unit completes the big request, with none to spare
+        boolean oneWoken = (sem.V(1) == 1);
+        big.join();
+        boolean bigFirst = (oneWoken && bigDone[0] == 1 && smallDone[0] == 0);
+
+        sem.V();
+        small.join();
+
+        return queued && stillQueued && bigFirst && smallDone[0] == 1;
+    }
+
+    /**
+     * Check that a priority-ordered semaphore wakes its highest priority
+     * waiter first. Only meaningful under <tt>PriorityScheduler</tt>.
+     */
+    public static boolean test3() {
+        Semaphore sem = new Semaphore(0, true);
+        final int[] order = new int[2];
+        final int[] count = new int[1];
+
+        KThread[] waiters = new KThread[2];
+        for (int i=0; i<waiters.length; i++) {
+            final int id = i;
+            waiters[i] = new KThread(new Runnable() {
+                public void run() {
+                    sem.P();
+                    order[count[0]++] = id;
+                }
+            }).setName("priority waiter " + i);
+        }
+
+        boolean intStatus = Machine.interrupt().disable();
+        ThreadedKernel.scheduler.setPriority(waiters[1],
+                                             PriorityScheduler.priorityDefault + 1);
+        Machine.interrupt().restore(intStatus);
+
+        for (int i=0; i<waiters.length; i++)
+            waiters[i].fork();
+        KThread.yield();
+
+        sem.V(2);
+        for (int i=0; i<waiters.length; i++)
+            waiters[i].join();
+
+        return count[0] == 2 && order[0] == 1 && order[1] == 0;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        if (ThreadedKernel.scheduler instanceof PriorityScheduler)
+            Lib.assertTrue(test3());
+        Lib.debug(dbgSemaphore, "[ SEMAPHORE BATCH TESTS ]: PASSED");
+    }
+
+    /**
+     * Release a group of waiters many times, once with a loop of
+     * <tt>V()</tt> calls and once with one <tt>V(int)</tt>, and print the
+     * ticks and time each took.
+     */
+    public static void benchmark() {
+        final int waiters = 16;
+        final int rounds = 50;
+
+        report("V() loop", waiters, rounds, measure(waiters, rounds, false));
+        report("V(n)", waiters, rounds, measure(waiters, rounds, true));
+    }
+
+    private static long[] measure(int waiters, final int rounds,
+                                  boolean batch) {
+        final Semaphore sem = new Semaphore(0);
+        // a round starts only once every waiter has taken its unit from the
+        // last one, so no waiter can take a unit meant for another
+        final Barrier round = new Barrier(waiters + 1);
+
+        KThread[] threads = new KThread[waiters];
+        for (int i=0; i<waiters; i++) {
+            threads[i] = new KThread(new Runnable() {
+                public void run() {
+                    for (int r=0; r<rounds; r++) {
+                        round.await();
+                        sem.P();
+                    }
+                }
+            }).setName("bench waiter " + i);
+            threads[i].fork();
+        }
+
+        long startTicks = Machine.timer().getTime();
+        long startNanos = System.nanoTime();
+
+        for (int r=0; r<rounds; r++) {
+            round.await();
+            if (batch) {
+                sem.V(waiters);
+            }
+            else {
+                for (int i=0; i<waiters; i++)
+                    sem.V();
+            }
+        }
+        for (int i=0; i<waiters; i++)
+            threads[i].join();
+
+        return new long[] {
+            Machine.timer().getTime() - startTicks,
+            (System.nanoTime() - startNanos) / 1000
+        };
+    }
+
+    private static void report(String what, int waiters, int rounds,
+                               long[] result) {
+        System.out.println("[ BENCH ] Semaphore " + what + ": " + rounds
+                           + " releases of " + waiters + " waiters in "
+                           + result[0] + " ticks, " + result[1] + " us");
+    }
+
+    private static final char dbgSemaphore = 'x';
+}
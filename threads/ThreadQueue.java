@@ -1,5 +1,7 @@
 package nachos.threads;
 
+import nachos.machine.*;
+
 /**
  * Schedules access to some sort of resource with limited access constraints. A
  * thread queue can be used to share this limited access among multiple
@@ -91,8 +93,59 @@ public abstract class ThreadQueue {
      */
     public abstract void acquire(KThread thread);
 
+    /**
+     * Take the specified thread off this queue without giving it access, for
+     * example because it stopped waiting after a timeout. Any priority it
+     * donated by waiting on this queue is withdrawn.
+     *
+     * @param	thread	the thread to remove.
+     * @return	<tt>true</tt> if the thread was waiting on this queue,
+     *		<tt>false</tt> if it was not (for example, because
+     *		<tt>nextThread()</tt> already returned it).
+     */
+    public abstract boolean removeWaiter(KThread thread);
+
+    /**
+     * Give access to every waiting thread at once, moving all of them to the
+     * ready queue in one step. Must be called with interrupts disabled.
+     *
+     * @return	the number of threads readied.
+     */
+    public int readyAll() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	int count = 0;
+	KThread thread;
+	while ((thread = nextThread()) != null) {
+	    thread.ready();
+	    count++;
+	}
+
+	return count;
+    }
+
     /**
      * Print out all the threads waiting for access, in no particular order.
      */
     public abstract void print();
+
+    /**
+     * Record in <tt>ThreadStats</tt> that a thread started waiting on this
+     * queue. Implementations call this from <tt>waitForAccess()</tt>.
+     */
+    protected void countWaiter() {
+	ThreadStats.queueDepthChanged(this, 1);
+    }
+
+    /**
+     * Record in <tt>ThreadStats</tt> that a thread stopped waiting on this
+     * queue. Implementations call this when <tt>nextThread()</tt> returns a
+     * thread.
+     */
+    protected void uncountWaiter() {
+	ThreadStats.queueDepthChanged(this, -1);
+    }
+
+    /** The depth history of this queue, if telemetry is enabled. */
+    ThreadStats.QueueStats stats = null;
 }
@@ -0,0 +1,383 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Scheduling telemetry for one <tt>KThread</tt>: the number of ticks it has
+ * spent running, ready and blocked. <tt>KThread</tt> records every status
+ * change here, with interrupts disabled.
+ *
+ * <p>
+ * The class also keeps two kinds of system-wide histograms: how long threads
+ * wait on the ready queue before being dispatched, and, for each kind of
+ * <tt>ThreadQueue</tt>, how many ticks queues of that kind spent at each
+ * depth while they had waiters. All histograms use power-of-two buckets.
+ *
+ * <p>
+ * Only live threads and queues with waiters are tracked individually. When a
+ * thread finishes, its ticks are added to a running total for finished
+ * threads; when a queue empties, its history is added to the totals for its
+ * kind. Neither is referenced afterwards, so telemetry does not keep dead
+ * threads or unused queues alive.
+ *
+ * <p>
+ * Telemetry is off unless <tt>ThreadedKernel.telemetry</tt> is set to
+ * <tt>true</tt> in the configuration file. When it is on,
+ * <tt>ThreadedKernel.terminate()</tt> calls <tt>print()</tt> just before the
+ * machine halts. Every line printed starts with <tt>telemetry.</tt>, followed
+ * by a record type and space-separated <tt>key=value</tt> fields.
+ */
+public class ThreadStats {
+    /**
+     * Allocate the telemetry for a new thread. The thread is counted as
+     * neither running, ready nor blocked until it is first made ready.
+     *
+     * @param	thread	the thread these statistics belong to.
+     */
+    ThreadStats(KThread thread) {
+        this.thread = thread;
+    }
+
+    /**
+     * Record that this thread was put on the ready queue.
+     */
+    void ready() {
+        if (!enabled)
+            return;
+
+        changeState(stateReady);
+    }
+
+    /**
+     * Record that this thread has been dispatched. If it was waiting on the
+     * ready queue, the wait is added to the ready-wait histogram.
+     */
+    void running() {
+        if (!enabled)
+            return;
+
+        long now = Machine.timer().getTime();
+        if (state == stateReady && !idle)
+            readyWait.add(now - since, 1);
+
+        changeState(stateRunning);
+        dispatches++;
+    }
+
+    /**
+     * Record that this thread went to sleep on something other than the
+     * ready queue.
+     */
+    void blocked() {
+        if (!enabled)
+            return;
+
+        changeState(stateBlocked);
+    }
+
+    /**
+     * Record that this thread has finished. It is charged for nothing from
+     * now on, and its ticks are added to the totals for finished threads.
+     */
+    void finished() {
+        if (!enabled)
+            return;
+
+        changeState(stateNone);
+
+        allThreads.remove(this);
+        numFinished++;
+        for (int i=0; i<ticks.length; i++)
+            finishedTicks[i] += ticks[i];
+        finishedDispatches += dispatches;
+    }
+
+    /**
+     * Mark this thread as the idle thread. The idle thread is never on the
+     * ready queue, so its dispatches are left out of the ready-wait
+     * histogram.
+     */
+    void setIdle() {
+        idle = true;
+    }
+
+    /**
+     * Return the number of ticks this thread has spent running.
+     *
+     * @return	the running time of this thread.
+     */
+    public long getRunningTicks() {
+        return ticks[stateRunning] + current(stateRunning);
+    }
+
+    /**
+     * Return the number of ticks this thread has spent on the ready queue.
+     *
+     * @return	the ready time of this thread.
+     */
+    public long getReadyTicks() {
+        return ticks[stateReady] + current(stateReady);
+    }
+
+    /**
+     * Return the number of ticks this thread has spent blocked.
+     *
+     * @return	the blocked time of this thread.
+     */
+    public long getBlockedTicks() {
+        return ticks[stateBlocked] + current(stateBlocked);
+    }
+
+    /**
+     * Return the number of times this thread has been dispatched.
+     *
+     * @return	the number of dispatches.
+     */
+    public int getDispatches() {
+        return dispatches;
+    }
+
+    private long current(int state) {
+        if (this.state != state)
+            return 0;
+
+        return Machine.timer().getTime() - since;
+    }
+
+    private void changeState(int newState) {
+        long now = Machine.timer().getTime();
+
+        if (state != stateNone)
+            ticks[state] += now - since;
+        else if (newState != stateNone)
+            allThreads.add(this);
+
+        state = newState;
+        since = now;
+    }
+
+    /**
+     * Record that the depth of a thread queue changed. Called with interrupts
+     * disabled through <tt>ThreadQueue.countWaiter()</tt> and
+     * <tt>ThreadQueue.uncountWaiter()</tt>.
+     *
+     * @param	queue	the queue whose depth changed.
+     * @param	delta	<tt>1</tt> if a thread started waiting, <tt>-1</tt>
+     *			if a thread stopped waiting.
+     */
+    static void queueDepthChanged(ThreadQueue queue, int delta) {
+        if (!enabled)
+            return;
+
+        QueueStats stats = queue.stats;
+        if (stats == null)
+            stats = queue.stats = new QueueStats(queue);
+
+        if (stats.current == 0)
+            busyQueues.add(stats);
+
+        stats.change(delta);
+
+        if (stats.current == 0) {
+            busyQueues.remove(stats);
+            stats.fold();
+        }
+    }
+
+    /**
+     * Print all telemetry collected so far. Must be called with interrupts
+     * disabled.
+     */
+    public static void print() {
+        if (!enabled)
+            return;
+
+        for (Iterator<ThreadStats> i=allThreads.iterator(); i.hasNext(); ) {
+            ThreadStats stats = i.next();
+            System.out.println("telemetry.thread id=" + stats.thread.getID()
+                               + " name=\"" + stats.thread.getName() + "\""
+                               + " running=" + stats.getRunningTicks()
+                               + " ready=" + stats.getReadyTicks()
+                               + " blocked=" + stats.getBlockedTicks()
+                               + " dispatches=" + stats.dispatches);
+        }
+
+        System.out.println("telemetry.finished threads=" + numFinished
+                           + " running=" + finishedTicks[stateRunning]
+                           + " ready=" + finishedTicks[stateReady]
+                           + " blocked=" + finishedTicks[stateBlocked]
+                           + " dispatches=" + finishedDispatches);
+
+        readyWait.print("telemetry.readywait", "");
+
+        System.out.println("telemetry.locks fast=" + Lock.getTotalFastAcquires()
+                           + " slow=" + Lock.getTotalSlowAcquires());
+
+        // queues that still have waiters are counted up to now
+        for (Iterator<QueueStats> i=busyQueues.iterator(); i.hasNext(); ) {
+            QueueStats stats = i.next();
+            stats.change(0);
+            stats.fold();
+        }
+
+        for (Iterator<QueueStats> i=queueKinds.values().iterator();
+             i.hasNext(); ) {
+            QueueStats kind = i.next();
+
+            String name = " queue=" + kind.name;
+            System.out.println("telemetry.queue" + name
+                               + " queues=" + kind.queues
+                               + " waits=" + kind.waits
+                               + " maxdepth=" + kind.maxDepth);
+            kind.depth.print("telemetry.queuedepth", name);
+        }
+    }
+
+    /**
+     * A histogram with power-of-two buckets. Bucket 0 holds the value 0, and
+     * bucket <i>i</i> holds values from 2<sup>i-1</sup> to
+     * 2<sup>i</sup>-1.
+     */
+    public static class Histogram {
+        /**
+         * Add <i>weight</i> to the bucket holding <i>value</i>.
+         */
+        public void add(long value, long weight) {
+            int bucket = 64 - Long.numberOfLeadingZeros(Math.max(value, 0));
+            counts[bucket] += weight;
+        }
+
+        /**
+         * Add every bucket of <i>other</i> to this histogram.
+         */
+        public void add(Histogram other) {
+            for (int i=0; i<counts.length; i++)
+                counts[i] += other.counts[i];
+        }
+
+        /**
+         * Print one line per non-empty bucket, with its bounds and count.
+         */
+        public void print(String record, String fields) {
+            for (int i=0; i<counts.length; i++) {
+                if (counts[i] == 0)
+                    continue;
+
+                long lo = (i == 0) ? 0 : 1L << (i-1);
+                long hi = (i == 0) ? 0 : (1L << i) - 1;
+                System.out.println(record + fields + " lo=" + lo + " hi=" + hi
+                                   + " count=" + counts[i]);
+            }
+        }
+
+        private long[] counts = new long[65];
+    }
+
+    /**
+     * The depth history of one thread queue since it was last empty, or the
+     * totals for one kind of queue. The depth histogram is weighted by time:
+     * each bucket counts the ticks spent at that depth.
+     */
+    static class QueueStats {
+        QueueStats(ThreadQueue queue) {
+            if (queue == readyQueue)
+                name = "ready";
+            else
+                name = queue.getClass().getSimpleName();
+
+            kind = queueKinds.get(name);
+            if (kind == null) {
+                kind = new QueueStats(name);
+                queueKinds.put(name, kind);
+            }
+            kind.queues++;
+        }
+
+        private QueueStats(String name) {
+            this.name = name;
+        }
+
+        void change(int delta) {
+            long now = Machine.timer().getTime();
+            if (current > 0)
+                depth.add(current, now - lastChange);
+            lastChange = now;
+
+            current += delta;
+            if (delta > 0)
+                waits++;
+            maxDepth = Math.max(maxDepth, current);
+        }
+
+        /**
+         * Add this queue's history to the totals for its kind, and start
+         * it again from nothing.
+         */
+        void fold() {
+            kind.depth.add(depth);
+            kind.waits += waits;
+            kind.maxDepth = Math.max(kind.maxDepth, maxDepth);
+
+            depth = new Histogram();
+            waits = 0;
+            maxDepth = current;
+        }
+
+        String name;
+        QueueStats kind = null;
+        Histogram depth = new Histogram();
+        int current = 0;
+        int maxDepth = 0;
+        int waits = 0;
+        int queues = 0;
+        long lastChange;
+    }
+
+    /**
+     * Tell the telemetry which queue is the ready queue, so that it can be
+     * labelled as such.
+     *
+     * @param	queue	the ready queue.
+     */
+    static void setReadyQueue(ThreadQueue queue) {
+        readyQueue = queue;
+    }
+
+    /**
+     * Whether telemetry is being collected. Set from
+     * <tt>ThreadedKernel.telemetry</tt> before the first thread is created.
+     */
+    static boolean enabled = false;
+
+    private static final int stateNone = 0;
+    private static final int stateRunning = 1;
+    private static final int stateReady = 2;
+    private static final int stateBlocked = 3;
+
+    private KThread thread;
+    private int state = stateNone;
+    private long since = 0;
+    private long[] ticks = new long[4];
+    private int dispatches = 0;
+    private boolean idle = false;
+
+    /** Every thread that has been started and has not finished. */
+    private static LinkedHashSet<ThreadStats> allThreads =
+        new LinkedHashSet<ThreadStats>();
+    private static int numFinished = 0;
+    private static long[] finishedTicks = new long[4];
+    private static int finishedDispatches = 0;
+
+    /** Every queue that has waiters. */
+    private static LinkedHashSet<QueueStats> busyQueues =
+        new LinkedHashSet<QueueStats>();
+    /** The totals for each kind of queue, by name. */
+    private static LinkedHashMap<String, QueueStats> queueKinds =
+        new LinkedHashMap<String, QueueStats>();
+    private static Histogram readyWait = new Histogram();
+    private static ThreadQueue readyQueue = null;
+}
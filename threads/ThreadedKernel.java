@@ -31,6 +31,12 @@ public class ThreadedKernel extends Kernel {
 	else
 	    fileSystem = null;
 
+	ThreadStats.enabled = Config.getBoolean("ThreadedKernel.telemetry", false);
+	LockProfiler.enabled =
+	    Config.getBoolean("ThreadedKernel.lockProfiler", false);
+	GangQueue.enabled =
+	    Config.getBoolean("ThreadedKernel.gangScheduling", false);
+
 	// start threading
 	new KThread(null);
 
@@ -49,13 +55,37 @@ public class ThreadedKernel extends Kernel {
     	KThread.selfTest();
     	Alarm.selfTest(alarm);
     	Condition2.selfTest();
-    	PriorityScheduler.selfTest();
+    	if (scheduler instanceof PriorityScheduler)
+    		PriorityScheduler.selfTest();
+    	if (scheduler instanceof DeadlineScheduler)
+    		DeadlineScheduler.selfTest();
+    	else if (scheduler instanceof FairScheduler)
+    		FairScheduler.selfTest();
     	Semaphore.selfTest();
     	SynchList.selfTest();
+    	BoundedSynchList.selfTest();
     	Communicator.selfTest();
+    	Channel.selfTest();
+    	ReadWriteLock.selfTest();
+    	TimedWaitTest.runall();
+    	joinTest.runMultiJoinTests();
+    	KThreadPool.selfTest();
+    	Barrier.selfTest();
+    	LockProfiler.selfTest();
+    	SemaphoreTest.runall();
+    	GangQueue.selfTest();
     	if (Machine.bank() != null) {
     		ElevatorBank.selfTest();
 	}
+    	if (Lib.test(dbgBenchmark)) {
+    		FairSchedulerTest.benchmark();
+    		ChannelTest.benchmark();
+    		CommunicatorTest.benchmark();
+    		ReadWriteLockTest.benchmark();
+    		KThreadPoolTest.benchmark();
+    		BarrierTest.benchmark();
+    		SemaphoreTest.benchmark();
+    	}
     }
 
     /**
@@ -69,6 +99,10 @@ public class ThreadedKernel extends Kernel {
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+	scheduler.printStats();
+	Machine.interrupt().disable();
+	ThreadStats.print();
+	LockProfiler.print();
 	Machine.halt();
     }
 
@@ -79,6 +113,9 @@ public class ThreadedKernel extends Kernel {
     /** Globally accessible reference to the file system. */
     public static FileSystem fileSystem = null;
 
+    /** Debug flag that makes <tt>selfTest()</tt> also run benchmarks. */
+    static final char dbgBenchmark = 'B';
+
     // dummy variables to make javac smarter
     private static RoundRobinScheduler dummy1 = null;
     private static PriorityScheduler dummy2 = null;
@@ -87,4 +124,6 @@ public class ThreadedKernel extends Kernel {
     private static Communicator dummy5 = null;
     private static Rider dummy6 = null;
     private static ElevatorController dummy7 = null;
+    private static FairScheduler dummy8 = null;
+    private static DeadlineScheduler dummy9 = null;
 }
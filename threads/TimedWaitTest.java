@@ -0,0 +1,194 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Tests for the timed waits: <tt>Semaphore.tryP()</tt>,
+ * <tt>Lock.tryAcquire()</tt> and <tt>Condition2.sleepFor()</tt>.
+ */
+public class TimedWaitTest {
+    /**
+     * Fork a thread that waits <i>delay</i> ticks and then runs
+     * <i>action</i>.
+     */
+    private static KThread after(final long delay, final Runnable action) {
+        KThread thread = new KThread(new Runnable() {
+            public void run() {
+                ThreadedKernel.alarm.waitUntil(delay);
+                action.run();
+            }
+        }).setName("timed wait helper");
+        thread.fork();
+        return thread;
+    }
+
+    /**
+     * Check that <tt>tryP()</tt> times out on a semaphore nobody signals,
+     * and that the timed-out thread no longer takes a later <tt>V()</tt>.
+     */
+    public static boolean test1() {
+        Semaphore sem = new Semaphore(0);
+
+        if (sem.tryP(0))
+            return false;
+
+        long start = Machine.timer().getTime();
+        if (sem.tryP(1000))
+            return false;
+        if (Machine.timer().getTime() - start < 1000)
+            return false;
+
+        sem.V();
+        return sem.tryP(0);
+    }
+
+    /**
+     * Check that <tt>tryP()</tt> succeeds when signalled in time, and that
+     * its cancelled timeout does not fire during a later wait.
+     */
+    public static boolean test2() {
+        final Semaphore sem = new Semaphore(0);
+        Runnable signal = new Runnable() {
+            public void run() {
+                sem.V();
+            }
+        };
+
+        long start = Machine.timer().getTime();
+        KThread helper = after(300, signal);
+        if (!sem.tryP(5000) || Machine.timer().getTime() - start >= 5000)
+            return false;
+        helper.join();
+
+        // outlasts the first timeout
+        helper = after(8000, signal);
+        boolean ok = sem.tryP(20000);
+        helper.join();
+
+        return ok;
+    }
+
+    /**
+     * Check that <tt>tryAcquire()</tt> gives up on a lock held too long and
+     * gets one that is released in time.
+     */
+    public static boolean test3() {
+        final Lock lock = new Lock();
+        final boolean[] holding = new boolean[1];
+
+        KThread holder = new KThread(new Runnable() {
+            public void run() {
+                lock.acquire();
+                holding[0] = true;
+                ThreadedKernel.alarm.waitUntil(3000);
+                lock.release();
+            }
+        }).setName("lock holder");
+        holder.fork();
+        while (!holding[0])
+            KThread.yield();
+
+        if (lock.tryAcquire(0) || lock.tryAcquire(500))
+            return false;
+        if (lock.isHeldByCurrentThread())
+            return false;
+        if (!lock.tryAcquire(20000))
+            return false;
+        lock.release();
+        holder.join();
+
+        return lock.tryAcquire(0);
+    }
+
+    /**
+     * Check that <tt>sleepFor()</tt> returns <tt>false</tt> on timeout,
+     * <tt>true</tt> when woken, and holds the lock either way.
+     */
+    public static boolean test4() {
+        final Lock lock = new Lock();
+        final Condition2 cond = new Condition2(lock);
+
+        lock.acquire();
+        boolean timedOut = !cond.sleepFor(700);
+        boolean held = lock.isHeldByCurrentThread();
+
+        KThread waker = after(200, new Runnable() {
+            public void run() {
+                lock.acquire();
+                cond.wake();
+                lock.release();
+            }
+        });
+        boolean woken = cond.sleepFor(20000);
+        held = held && lock.isHeldByCurrentThread();
+        lock.release();
+        waker.join();
+
+        return timedOut && woken && held;
+    }
+
+    /**
+     * Check that a thread that times out waiting for a lock withdraws the
+     * priority it donated to the holder. Only meaningful under
+     * <tt>PriorityScheduler</tt>.
+     */
+    public static boolean test5() {
+        final Lock lock = new Lock();
+        final boolean[] holding = new boolean[1];
+        final boolean[] gaveUp = new boolean[1];
+
+        KThread low = new KThread(new Runnable() {
+            public void run() {
+                lock.acquire();
+                holding[0] = true;
+                ThreadedKernel.alarm.waitUntil(4000);
+                lock.release();
+            }
+        }).setName("low holder");
+        KThread high = new KThread(new Runnable() {
+            public void run() {
+                gaveUp[0] = !lock.tryAcquire(500);
+            }
+        }).setName("high waiter");
+
+        boolean intStatus = Machine.interrupt().disable();
+        ThreadedKernel.scheduler.setPriority(high,
+                                             PriorityScheduler.priorityMaximum);
+        Machine.interrupt().restore(intStatus);
+
+        low.fork();
+        while (!holding[0])
+            KThread.yield();
+        high.fork();
+        KThread.yield();
+
+        intStatus = Machine.interrupt().disable();
+        int donated = ThreadedKernel.scheduler.getEffectivePriority(low);
+        Machine.interrupt().restore(intStatus);
+
+        high.join();
+
+        intStatus = Machine.interrupt().disable();
+        int withdrawn = ThreadedKernel.scheduler.getEffectivePriority(low);
+        Machine.interrupt().restore(intStatus);
+
+        low.join();
+
+        return gaveUp[0]
+            && donated == PriorityScheduler.priorityMaximum
+            && withdrawn == PriorityScheduler.priorityDefault;
+    }
+
+    /** Run all tests defined here. */
+    public static void runall() {
+        Lib.assertTrue(test1());
+        Lib.assertTrue(test2());
+        Lib.assertTrue(test3());
+        Lib.assertTrue(test4());
+        if (ThreadedKernel.scheduler instanceof PriorityScheduler)
+            Lib.assertTrue(test5());
+        Lib.debug(dbgTimed, "[ TIMED WAIT TESTS ]: PASSED");
+    }
+
+    private static final char dbgTimed = 'x';
+}
@@ -82,7 +82,41 @@ public class joinTest {
 		
 	}
 
-
+	//tests for several joiners and for join with a timeout
+	//these run after the other kernel self tests, since they change
+	//the clock phase that some of the earlier tests depend on
+	public static void runMultiJoinTests(){
+		int statusFinished = 4;
+		
+		//first test
+		//several threads join the same thread
+		//every one of them must be woken when it finishes
+		KThread sharedThread =new KThread(new yieldThread());
+		KThread[] joiners =new KThread[4];
+		for (int i=0; i<joiners.length; i++){
+			joiners[i] =new KThread(new multiJoinRun(sharedThread));
+			joiners[i].fork();
+		}
+		KThread.yield();
+		sharedThread.fork();
+		sharedThread.join();
+		for (int i=0; i<joiners.length; i++){
+			joiners[i].join();
+			Lib.assertTrue(joiners[i].getStatus()==statusFinished);
+		}
+		
+		//second test
+		//join with a timeout gives up on a thread that is still sleeping
+		//and succeeds on one that finishes in time
+		KThread sleeper =new KThread(new sleepForRun(2000));
+		sleeper.fork();
+		Lib.assertTrue(!sleeper.join(0));
+		Lib.assertTrue(!sleeper.join(500));
+		Lib.assertTrue(sleeper.getStatus()!=statusFinished);
+		Lib.assertTrue(sleeper.join(20000));
+		Lib.assertTrue(sleeper.getStatus()==statusFinished);
+		Lib.assertTrue(sleeper.join(0));
+	}
 
 }
 //////////////////////////////////////////////////
@@ -169,4 +203,25 @@ class DoublejoinRun implements Runnable {
     	//System.out.println("join ends");
 
 	}
-}
\ No newline at end of file
+}
+class multiJoinRun implements Runnable {
+	//a runnable that joins a shared thread that other threads also join
+	private KThread target;
+	public multiJoinRun(KThread target){
+		this.target=target;
+	}
+	public void run() {
+		target.join();
+		Lib.assertTrue(target.getStatus()==4);//status finished
+	}
+}
+class sleepForRun implements Runnable {
+	//a runnable that sleeps on the alarm for a while
+	private long ticks;
+	public sleepForRun(long ticks){
+		this.ticks=ticks;
+	}
+	public void run() {
+		ThreadedKernel.alarm.waitUntil(ticks);
+	}
+}
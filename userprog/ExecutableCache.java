@@ -0,0 +1,237 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.io.EOFException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Caches parsed executables. The first <tt>exec</tt> of a file opens it and
+ * parses its COFF headers. The resulting <tt>Coff</tt> and its sections are
+ * kept, with the file still open, so later <tt>exec</tt>s of the same file
+ * load their pages without reopening the file or rereading any header.
+ *
+ * <p>
+ * Each entry is keyed by file name. The file system does not report
+ * modification times, so the kernel calls <tt>invalidate()</tt> each time a
+ * process writes to a file or removes it. An entry that has been invalidated
+ * is not used again, and its <tt>Coff</tt> is closed once no process is
+ * loading from it. Nothing is recorded about files that are not cached, so
+ * writing to an ordinary data file costs no more than a map lookup.
+ *
+ * <p>
+ * Every cached executable holds one of the few files the file system lets
+ * the kernel have open, so at most <tt>maxEntries</tt> are kept. Beyond
+ * that, the least recently used executable that no process is loading from
+ * is dropped.
+ */
+public class ExecutableCache {
+    /**
+     * Allocate a new, empty executable cache.
+     */
+    public ExecutableCache() {
+    }
+
+    /**
+     * Return the parsed executable in file <i>name</i>, opening and parsing
+     * the file only if it is not already cached. The caller must pass the
+     * result to <tt>release()</tt> once it no longer needs it, instead of
+     * closing it.
+     *
+     * @param	name	the name of the file containing the executable.
+     * @return	the executable, or <tt>null</tt> if the file could not be
+     *		opened or is not a COFF executable.
+     */
+    public Coff acquire(String name) {
+        lock.acquire();
+
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            entry.refs++;
+            numHits++;
+            lock.release();
+            return entry.coff;
+        }
+
+        // load with the lock held, so two processes never parse one file
+        // twice, and an invalidation waits until the load is done
+        numMisses++;
+        loading = name;
+        Coff coff = null;
+
+        OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
+        if (executable != null) {
+            try {
+                coff = new Coff(executable);
+            }
+            catch (EOFException e) {
+                executable.close();
+            }
+        }
+
+        if (coff != null) {
+            if (entries.size() >= maxEntries)
+                evictUnused();
+            entry = new Entry(coff);
+            entry.refs++;
+            entries.put(name, entry);
+            users.put(coff, entry);
+        }
+
+        loading = null;
+        lock.release();
+
+        return coff;
+    }
+
+    /**
+     * Give back an executable returned by <tt>acquire()</tt>.
+     *
+     * @param	coff	the executable.
+     */
+    public void release(Coff coff) {
+        lock.acquire();
+
+        Entry entry = users.get(coff);
+        Lib.assertTrue(entry != null && entry.refs > 0);
+
+        if (--entry.refs == 0 && entry.stale)
+            close(entry);
+
+        lock.release();
+    }
+
+    /**
+     * Note that file <i>name</i> has been written to or removed. A cached
+     * copy of it will not be used again.
+     *
+     * @param	name	the name of the file.
+     */
+    public void invalidate(String name) {
+        // no thread switch can happen between these checks, so a name that
+        // is neither cached nor being loaded cannot become cached meanwhile
+        if (!entries.containsKey(name) && !name.equals(loading))
+            return;
+
+        lock.acquire();
+
+        if (entries.containsKey(name))
+            evict(name);
+
+        lock.release();
+    }
+
+    /**
+     * Return the number of <tt>acquire()</tt> calls that were served from the
+     * cache.
+     *
+     * @return	the number of cache hits.
+     */
+    public int getHits() {
+        return numHits;
+    }
+
+    /**
+     * Return the number of <tt>acquire()</tt> calls that had to read the file.
+     *
+     * @return	the number of cache misses.
+     */
+    public int getMisses() {
+        return numMisses;
+    }
+
+    private void evict(String name) {
+        Entry entry = entries.remove(name);
+        entry.stale = true;
+        if (entry.refs == 0)
+            close(entry);
+    }
+
+    /** Drop the least recently used entry that no process is using. */
+    private void evictUnused() {
+        for (Iterator<Entry> i=entries.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (entry.refs == 0) {
+                i.remove();
+                close(entry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Close an executable no process is using any more, and drop the process
+     * template made from it, which can never be used again.
+     */
+    private void close(Entry entry) {
+        users.remove(entry.coff);
+        UserKernel.templates.remove(entry.coff);
+        entry.coff.close();
+    }
+
+    /** A parsed executable and the number of processes using it. */
+    private static class Entry {
+        Entry(Coff coff) {
+            this.coff = coff;
+        }
+
+        Coff coff;
+        int refs = 0;
+        /** Set once the entry may no longer be handed out. */
+        boolean stale = false;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        ExecutableCache cache = new ExecutableCache();
+
+        Coff first = cache.acquire("echo.coff");
+        if (first == null) {
+            Lib.debug(dbgCache, "[ EXECUTABLE CACHE TESTS ]: SKIPPED");
+            return;
+        }
+        Lib.assertTrue(cache.getMisses() == 1);
+
+        // a second load shares the parsed headers
+        Coff second = cache.acquire("echo.coff");
+        Lib.assertTrue(second == first && cache.getHits() == 1);
+        cache.release(second);
+
+        // after invalidation, a new load rereads the file while the old copy
+        // stays usable until released
+        cache.invalidate("echo.coff");
+        Coff third = cache.acquire("echo.coff");
+        Lib.assertTrue(third != first && cache.getMisses() == 2);
+        Lib.assertTrue(first.getEntryPoint() == third.getEntryPoint());
+        cache.release(first);
+        cache.release(third);
+        cache.invalidate("echo.coff");
+        cache.invalidate("not-cached.txt");
+        Lib.assertTrue(cache.entries.isEmpty() && cache.users.isEmpty());
+
+        Lib.assertTrue(cache.acquire("no-such-file.coff") == null);
+
+        Lib.debug(dbgCache, "[ EXECUTABLE CACHE TESTS ]: PASSED");
+    }
+
+    private Lock lock = new Lock();
+    /** The entry for each cached file name, least recently used first. */
+    private LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    /** The entry of every executable handed out and not yet closed. */
+    private HashMap<Coff, Entry> users = new HashMap<Coff, Entry>();
+    /** The name of the file being loaded, if any. */
+    private String loading = null;
+    private int numHits = 0;
+    private int numMisses = 0;
+
+    /** The most executables kept open while no process is using them. */
+    public static final int maxEntries = 4;
+
+    private static final char dbgCache = 'x';
+}
@@ -0,0 +1,225 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * A process's file descriptor table. Descriptors index an array of open
+ * file entries directly, so a lookup needs no boxing or hashing. A bitmap
+ * of used descriptors finds the lowest free one a word at a time. When
+ * every descriptor is in use, the table doubles, up to
+ * <tt>maxDescriptors</tt>.
+ *
+ * <p>
+ * Several descriptors can share one <tt>OpenFile</tt> through
+ * <tt>dup()</tt>, like UNIX <tt>dup(2)</tt>. The file is closed only when
+ * its last descriptor is closed.
+ */
+public class FileTable {
+    /**
+     * Allocate a new, empty file table.
+     */
+    public FileTable() {
+        entries = new Entry[initialDescriptors];
+        used = new long[wordsFor(initialDescriptors)];
+    }
+
+    /**
+     * Return the file a descriptor refers to.
+     *
+     * @param	fd	the file descriptor.
+     * @return	the open file, or <tt>null</tt> if <i>fd</i> is not open.
+     */
+    public OpenFile get(int fd) {
+        if (fd < 0 || fd >= entries.length || entries[fd] == null)
+            return null;
+
+        return entries[fd].file;
+    }
+
+    /**
+     * Give <i>file</i> the lowest free descriptor.
+     *
+     * @param	file	the file to add.
+     * @return	the new descriptor, or -1 if the table is full.
+     */
+    public int add(OpenFile file) {
+        Lib.assertTrue(file != null);
+
+        return install(new Entry(file));
+    }
+
+    /**
+     * Give <i>file</i> the descriptor <i>fd</i>, which must be free. Used for
+     * the standard input and output descriptors.
+     *
+     * @param	fd	the descriptor to use.
+     * @param	file	the file to add.
+     */
+    public void set(int fd, OpenFile file) {
+        Lib.assertTrue(file != null && fd >= 0 && fd < maxDescriptors);
+
+        while (fd >= entries.length)
+            grow();
+        Lib.assertTrue(entries[fd] == null);
+
+        put(fd, new Entry(file));
+    }
+
+    /**
+     * Make the lowest free descriptor refer to the same open file as
+     * <i>fd</i>. The two descriptors share the file's position.
+     *
+     * @param	fd	an open descriptor.
+     * @return	the new descriptor, or -1 if <i>fd</i> is not open or the
+     *		table is full.
+     */
+    public int dup(int fd) {
+        if (get(fd) == null)
+            return -1;
+
+        return install(entries[fd]);
+    }
+
+    /**
+     * Close a descriptor. The open file is closed if no other descriptor
+     * refers to it.
+     *
+     * @param	fd	the descriptor to close.
+     * @return	<tt>true</tt> if <i>fd</i> was open.
+     */
+    public boolean close(int fd) {
+        if (get(fd) == null)
+            return false;
+
+        Entry entry = entries[fd];
+        entries[fd] = null;
+        used[fd >> 6] &= ~(1L << (fd & 63));
+        numOpen--;
+
+        if (--entry.refs == 0)
+            entry.file.close();
+        return true;
+    }
+
+    /**
+     * Close every open descriptor.
+     */
+    public void closeAll() {
+        for (int fd=0; fd<entries.length; fd++) {
+            if (entries[fd] != null)
+                close(fd);
+        }
+    }
+
+    /**
+     * Return the number of open descriptors.
+     *
+     * @return	the number of descriptors in use.
+     */
+    public int size() {
+        return numOpen;
+    }
+
+    private int install(Entry entry) {
+        int fd = lowestFree();
+        if (fd < 0) {
+            if (entries.length >= maxDescriptors)
+                return -1;
+            fd = entries.length;
+            grow();
+        }
+
+        put(fd, entry);
+        return fd;
+    }
+
+    private void put(int fd, Entry entry) {
+        entries[fd] = entry;
+        used[fd >> 6] |= 1L << (fd & 63);
+        entry.refs++;
+        numOpen++;
+    }
+
+    private int lowestFree() {
+        for (int w=0; w<used.length; w++) {
+            if (used[w] != -1L) {
+                int fd = (w << 6) + Long.numberOfTrailingZeros(~used[w]);
+                return (fd < entries.length) ? fd : -1;
+            }
+        }
+        return -1;
+    }
+
+    private void grow() {
+        int size = Math.min(entries.length * 2, maxDescriptors);
+
+        Entry[] newEntries = new Entry[size];
+        System.arraycopy(entries, 0, newEntries, 0, entries.length);
+        entries = newEntries;
+
+        long[] newUsed = new long[wordsFor(size)];
+        System.arraycopy(used, 0, newUsed, 0, used.length);
+        used = newUsed;
+    }
+
+    private static int wordsFor(int descriptors) {
+        return (descriptors + 63) >> 6;
+    }
+
+    /** An open file and the number of descriptors that refer to it. */
+    private static class Entry {
+        Entry(OpenFile file) {
+            this.file = file;
+        }
+
+        OpenFile file;
+        int refs = 0;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        FileTable table = new FileTable();
+        OpenFile a = new OpenFile();
+        OpenFile b = new OpenFile();
+
+        table.set(0, a);
+        table.set(1, b);
+        Lib.assertTrue(table.add(a) == 2 && table.size() == 3);
+
+        // descriptors are reused lowest first after close
+        Lib.assertTrue(table.close(0) && table.get(0) == null);
+        Lib.assertTrue(!table.close(0));
+        Lib.assertTrue(table.add(b) == 0 && table.get(0) == b);
+
+        // dup shares the file, which stays open until the last close
+        int copy = table.dup(1);
+        Lib.assertTrue(copy == 3 && table.get(copy) == b);
+        Lib.assertTrue(table.dup(42) == -1 && table.get(-1) == null);
+
+        // the table grows past its initial size and stops at the maximum
+        int fd;
+        while ((fd = table.add(a)) != -1)
+            Lib.assertTrue(table.get(fd) == a);
+        Lib.assertTrue(table.size() == maxDescriptors);
+        Lib.assertTrue(table.close(100) && table.add(b) == 100);
+
+        table.closeAll();
+        Lib.assertTrue(table.size() == 0 && table.add(a) == 0);
+
+        Lib.debug(dbgFileTable, "[ FILE TABLE TESTS ]: PASSED");
+    }
+
+    /** The number of descriptors a new table has room for. */
+    public static final int initialDescriptors = 16;
+    /** The most descriptors a process may have open at once. */
+    public static final int maxDescriptors = 1024;
+
+    private Entry[] entries;
+    /** Bit <i>fd</i> is set if descriptor <i>fd</i> is open. */
+    private long[] used;
+    private int numOpen = 0;
+
+    private static final char dbgFileTable = 'x';
+}
@@ -0,0 +1,252 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A pair of submission and completion rings shared between a user process
+ * and the kernel. The process queues system calls on the submission ring
+ * without trapping. It then makes one <tt>ringEnter()</tt> call, and a kernel
+ * worker thread carries out everything queued while the process goes on
+ * running. Each result is posted on the completion ring, which the process
+ * can poll from user mode or wait on through <tt>ringEnter()</tt>.
+ *
+ * <p>
+ * Both rings live in the process's memory. Each starts with a header of two
+ * words, <tt>head</tt> and <tt>tail</tt>, followed by <i>entries</i> slots.
+ * Both indices count up forever, and slot <tt>i % entries</tt> holds entry
+ * <tt>i</tt>. The process fills submission slots and advances the submission
+ * tail. The kernel advances the submission head as it takes entries, fills
+ * completion slots, and advances the completion tail. The process advances
+ * the completion head as it consumes results. A submission is five words:
+ * the syscall number, three arguments and a value copied into the
+ * completion. A completion is two words: that value and the syscall's
+ * return value.
+ *
+ * <p>
+ * Reads and writes on streams, such as the console, are refused with -1.
+ * A stream can wait on its other end for as long as it likes, and the
+ * process could then not exit until it did, since exiting waits for the
+ * worker to finish its current call.
+ */
+public class IoRing {
+    /**
+     * Allocate a new ring pair for <i>process</i>, and start its worker.
+     *
+     * @param	process	the process the rings belong to.
+     * @param	sqAddress	the address of the submission ring.
+     * @param	cqAddress	the address of the completion ring.
+     * @param	entries	the number of slots in each ring.
+     */
+    public IoRing(UserProcess process, int sqAddress, int cqAddress,
+                  int entries) {
+        this.process = process;
+        this.sqAddress = sqAddress;
+        this.cqAddress = cqAddress;
+        this.entries = entries;
+
+        worker = new KThread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+        worker.setName("ring worker").fork();
+    }
+
+    /**
+     * Validate the ring addresses and reset both rings to empty.
+     *
+     * @param	process	the process the rings belong to.
+     * @param	sqAddress	the address of the submission ring.
+     * @param	cqAddress	the address of the completion ring.
+     * @param	entries	the number of slots in each ring.
+     * @return	<tt>true</tt> if both rings lie in writable memory.
+     */
+    public static boolean initialize(UserProcess process, int sqAddress,
+                                     int cqAddress, int entries) {
+        if (sqAddress < 0 || cqAddress < 0
+            || entries <= 0 || entries > maxEntries)
+            return false;
+
+        // writing both rings in full checks every page they touch
+        byte[] sq = new byte[headerSize + entries*submissionSize];
+        byte[] cq = new byte[headerSize + entries*completionSize];
+        return process.writeVirtualMemory(sqAddress, sq) == sq.length
+            && process.writeVirtualMemory(cqAddress, cq) == cq.length;
+    }
+
+    /**
+     * Hand everything queued on the submission ring to the worker, and wait
+     * until at least <i>minComplete</i> results are waiting on the completion
+     * ring, or until the worker runs out of submissions to carry out.
+     *
+     * @param	minComplete	the number of results to wait for.
+     * @return	the number of results waiting, or -1 if a ring could not be
+     *		read.
+     */
+    public int enter(int minComplete) {
+        lock.acquire();
+
+        submitted = true;
+        doorbell.wake();
+
+        int waiting;
+        while ((waiting = pendingCompletions()) >= 0
+               && waiting < minComplete && (submitted || busy))
+            completed.sleep();
+
+        lock.release();
+
+        return waiting;
+    }
+
+    /**
+     * Stop the worker once it finishes the call it is carrying out, and wait
+     * for it. Submissions it has not started are dropped. The wait is
+     * bounded, since the worker never reads or writes a stream.
+     */
+    public void close() {
+        lock.acquire();
+        stopping = true;
+        doorbell.wake();
+        lock.release();
+
+        worker.join();
+    }
+
+    private void work() {
+        lock.acquire();
+
+        while (!stopping) {
+            if (!submitted) {
+                doorbell.sleep();
+                continue;
+            }
+
+            submitted = false;
+            busy = true;
+            lock.release();
+
+            while (!stopping && completeOne())
+                ;
+
+            lock.acquire();
+            busy = false;
+            completed.wakeAll();
+        }
+
+        lock.release();
+    }
+
+    /**
+     * Carry out the submission at the head of the submission ring and post
+     * its result, if there is a submission and room for its result.
+     */
+    private boolean completeOne() {
+        int[] sq = readWords(sqAddress, 2);
+        int[] cq = readWords(cqAddress, 2);
+        if (sq == null || cq == null
+            || sq[0] == sq[1] || cq[1] - cq[0] >= entries)
+            return false;
+
+        int[] sqe = readWords(slot(sqAddress, sq[0], submissionSize), 5);
+        if (sqe == null)
+            return false;
+
+        int result = isAllowed(sqe[0], sqe[1])
+            ? process.handleSyscall(sqe[0], sqe[1], sqe[2], sqe[3], 0) : -1;
+        Lib.debug(dbgRing, "ring ran syscall " + sqe[0] + " -> " + result);
+
+        // the result must be in place before the process can see the new tail
+        if (!writeWords(slot(cqAddress, cq[1], completionSize),
+                        new int[] { sqe[4], result })
+            || !writeWords(cqAddress + 4, new int[] { cq[1] + 1 })
+            || !writeWords(sqAddress, new int[] { sq[0] + 1 }))
+            return false;
+
+        lock.acquire();
+        completed.wakeAll();
+        lock.release();
+
+        return true;
+    }
+
+    private int pendingCompletions() {
+        int[] cq = readWords(cqAddress, 2);
+        return (cq == null) ? -1 : cq[1] - cq[0];
+    }
+
+    private int slot(int ringAddress, int index, int size) {
+        // the indices may have wrapped around to negative numbers
+        int i = ((index % entries) + entries) % entries;
+        return ringAddress + headerSize + i*size;
+    }
+
+    private int[] readWords(int vaddr, int count) {
+        byte[] data = new byte[count*4];
+        if (process.readVirtualMemory(vaddr, data) != data.length)
+            return null;
+
+        int[] words = new int[count];
+        for (int i=0; i<count; i++)
+            words[i] = Lib.bytesToInt(data, i*4);
+        return words;
+    }
+
+    private boolean writeWords(int vaddr, int[] words) {
+        byte[] data = new byte[words.length*4];
+        for (int i=0; i<words.length; i++)
+            Lib.bytesFromInt(data, i*4, words[i]);
+        return process.writeVirtualMemory(vaddr, data) == data.length;
+    }
+
+    /**
+     * Return whether <i>syscall</i> may be submitted. Only file system calls
+     * may, since the worker cannot stop, replace or wait for the process, and
+     * they may not read or write streams.
+     */
+    private boolean isAllowed(int syscall, int fileDescriptor) {
+        if ((syscall == UserProcess.syscallRead
+             || syscall == UserProcess.syscallWrite
+             || syscall == UserProcess.syscallReadv
+             || syscall == UserProcess.syscallWritev)
+            && process.isStream(fileDescriptor))
+            return false;
+
+        for (int i=0; i<allowedSyscalls.length; i++) {
+            if (allowedSyscalls[i] == syscall)
+                return true;
+        }
+        return false;
+    }
+
+    /** The most slots a ring may have. */
+    public static final int maxEntries = 256;
+
+    private static final int[] allowedSyscalls = {
+        UserProcess.syscallCreate, UserProcess.syscallOpen,
+        UserProcess.syscallRead, UserProcess.syscallWrite,
+        UserProcess.syscallClose, UserProcess.syscallUnlink,
+        UserProcess.syscallDup, UserProcess.syscallReadv,
+        UserProcess.syscallWritev
+    };
+
+    private static final int headerSize = 8;
+    private static final int submissionSize = 20;
+    private static final int completionSize = 8;
+
+    private UserProcess process;
+    private int sqAddress, cqAddress, entries;
+    private KThread worker;
+
+    private Lock lock = new Lock();
+    /** Wakes the worker when there are submissions or it must stop. */
+    private Condition2 doorbell = new Condition2(lock);
+    /** Wakes <tt>enter()</tt> when a result is posted or the worker idles. */
+    private Condition2 completed = new Condition2(lock);
+    private boolean submitted = false;
+    private boolean busy = false;
+    private boolean stopping = false;
+
+    private static final char dbgRing = 'a';
+}
@@ -0,0 +1,238 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * Allocates physical pages. A bitmap records which pages are free, so that
+ * a whole process image can be allocated or freed in one call, and runs of
+ * contiguous pages can be found for large pages or DMA buffers. The number
+ * of free pages is kept as a counter.
+ *
+ * <p>
+ * The critical sections are a few word operations and never block, so they
+ * are protected by disabling interrupts rather than with a <tt>Lock</tt>.
+ */
+public class PageAllocator {
+    /**
+     * Allocate a new page allocator with every page free.
+     *
+     * @param	numPages	the number of physical pages to manage.
+     */
+    public PageAllocator(int numPages) {
+        Lib.assertTrue(numPages > 0);
+
+        this.numPages = numPages;
+        free = new long[(numPages + 63) >> 6];
+        for (int ppn=0; ppn<numPages; ppn++)
+            free[ppn >> 6] |= 1L << (ppn & 63);
+        numFree = numPages;
+    }
+
+    /**
+     * Allocate <i>count</i> pages, which need not be contiguous. Either all
+     * of them are allocated or none are.
+     *
+     * @param	count	the number of pages needed.
+     * @return	the physical page numbers, lowest first, or <tt>null</tt> if
+     *		fewer than <i>count</i> pages are free.
+     */
+    public int[] allocate(int count) {
+        Lib.assertTrue(count >= 0);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        int[] ppns = null;
+        if (count <= numFree) {
+            ppns = new int[count];
+            int n = 0;
+            for (int w=0; n<count; w++) {
+                long word = free[w];
+                while (word != 0 && n < count) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    ppns[n++] = (w << 6) + bit;
+                }
+                free[w] = word;
+            }
+            numFree -= count;
+        }
+
+        Machine.interrupt().restore(intStatus);
+
+        return ppns;
+    }
+
+    /**
+     * Allocate a single page.
+     *
+     * @return	the physical page number, or -1 if no page is free.
+     */
+    public int allocate() {
+        int[] ppns = allocate(1);
+        return (ppns == null) ? -1 : ppns[0];
+    }
+
+    /**
+     * Allocate <i>count</i> pages with consecutive physical page numbers.
+     *
+     * @param	count	the number of pages needed.
+     * @return	the first physical page number of the run, or -1 if there is
+     *		no free run that long.
+     */
+    public int allocateContiguous(int count) {
+        Lib.assertTrue(count > 0);
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        int first = -1;
+        if (count <= numFree) {
+            int run = 0;
+            for (int ppn=0; ppn<numPages; ppn++) {
+                // skip whole words with nothing free
+                if ((ppn & 63) == 0 && free[ppn >> 6] == 0) {
+                    run = 0;
+                    ppn += 63;
+                    continue;
+                }
+
+                run = isFree(ppn) ? run + 1 : 0;
+                if (run == count) {
+                    first = ppn - count + 1;
+                    break;
+                }
+            }
+
+            if (first != -1) {
+                for (int ppn=first; ppn<first+count; ppn++)
+                    free[ppn >> 6] &= ~(1L << (ppn & 63));
+                numFree -= count;
+            }
+        }
+
+        Machine.interrupt().restore(intStatus);
+
+        return first;
+    }
+
+    /**
+     * Free the pages in <tt>ppns[offset]</tt> through
+     * <tt>ppns[offset+count-1]</tt>.
+     *
+     * @param	ppns	the physical page numbers to free.
+     * @param	offset	the first entry of <i>ppns</i> to free.
+     * @param	count	the number of pages to free.
+     */
+    public void free(int[] ppns, int offset, int count) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        for (int i=offset; i<offset+count; i++) {
+            int ppn = ppns[i];
+            Lib.assertTrue(ppn >= 0 && ppn < numPages && !isFree(ppn));
+            free[ppn >> 6] |= 1L << (ppn & 63);
+        }
+        numFree += count;
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Free every page in <i>ppns</i>.
+     *
+     * @param	ppns	the physical page numbers to free.
+     */
+    public void free(int[] ppns) {
+        free(ppns, 0, ppns.length);
+    }
+
+    /**
+     * Free a single page.
+     *
+     * @param	ppn	the physical page number to free.
+     */
+    public void free(int ppn) {
+        free(new int[] { ppn });
+    }
+
+    /**
+     * Free a run of pages allocated by <tt>allocateContiguous()</tt>.
+     *
+     * @param	first	the first physical page number of the run.
+     * @param	count	the number of pages in the run.
+     */
+    public void freeContiguous(int first, int count) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        for (int ppn=first; ppn<first+count; ppn++) {
+            Lib.assertTrue(ppn >= 0 && ppn < numPages && !isFree(ppn));
+            free[ppn >> 6] |= 1L << (ppn & 63);
+        }
+        numFree += count;
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of free pages.
+     *
+     * @return	the number of pages that can still be allocated.
+     */
+    public int getNumFree() {
+        return numFree;
+    }
+
+    /**
+     * Print a map of physical memory, with <tt>_</tt> for each free page.
+     */
+    public void printVisualization() {
+        String freeVisualization = "FREE PHYS [";
+        for (int ppn = 0; ppn < numPages; ppn++)
+            freeVisualization += isFree(ppn) ? "_" : " ";
+        freeVisualization += ']';
+        System.out.println(freeVisualization);
+    }
+
+    private boolean isFree(int ppn) {
+        return (free[ppn >> 6] & (1L << (ppn & 63))) != 0;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        PageAllocator pages = new PageAllocator(130);
+
+        int[] image = pages.allocate(70);
+        Lib.assertTrue(image != null && image[0] == 0 && image[69] == 69);
+        Lib.assertTrue(pages.getNumFree() == 60);
+        Lib.assertTrue(pages.allocate(61) == null && pages.getNumFree() == 60);
+
+        // free every other page of the image, leaving no run of two
+        int[] holes = new int[35];
+        for (int i=0; i<holes.length; i++)
+            holes[i] = image[2*i];
+        pages.free(holes);
+        Lib.assertTrue(pages.getNumFree() == 95);
+
+        int run = pages.allocateContiguous(50);
+        Lib.assertTrue(run == 70 && pages.getNumFree() == 45);
+        Lib.assertTrue(pages.allocateContiguous(11) == -1);
+        Lib.assertTrue(pages.allocateContiguous(10) == 120);
+        Lib.assertTrue(pages.allocateContiguous(2) == -1);
+
+        // single pages come from the holes, lowest first
+        Lib.assertTrue(pages.allocate() == 0 && pages.allocate() == 2);
+
+        pages.freeContiguous(run, 50);
+        pages.freeContiguous(120, 10);
+        Lib.assertTrue(pages.getNumFree() == 93);
+
+        Lib.debug(dbgPages, "[ PAGE ALLOCATOR TESTS ]: PASSED");
+    }
+
+    private int numPages;
+    /** Bit <i>ppn</i> is set if page <i>ppn</i> is free. */
+    private long[] free;
+    private int numFree;
+
+    private static final char dbgPages = 'x';
+}
@@ -0,0 +1,324 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The kernel's table of processes, indexed by process ID. It assigns
+ * process IDs and records which process is the parent of which. When a
+ * process exits, it keeps the process's exit status until the parent
+ * collects it.
+ *
+ * <p>
+ * Finding a child by ID is a single lookup, not a search of the parent's
+ * children. Every process has one condition variable, made once, that its
+ * children signal when they exit. A process waiting in <tt>join()</tt> or
+ * <tt>joinAny()</tt> sleeps on it. Each process also keeps its exited
+ * children in the order they exited, so <tt>joinAny()</tt> takes the first
+ * of them without looking at the others.
+ *
+ * <p>
+ * A process leaves the table once its exit status has been collected. It
+ * also leaves if it has no parent to collect the status: either it never had
+ * one, or its parent exited first.
+ */
+public class ProcessTable {
+    /**
+     * Allocate a new, empty process table.
+     */
+    public ProcessTable() {
+    }
+
+    /**
+     * Add a process to the table, with no parent.
+     *
+     * @param	process	the process to add.
+     * @return	the process ID it has been given.
+     */
+    public int add(UserProcess process) {
+        lock.acquire();
+
+        Entry entry = new Entry(nextID++, process);
+        entries.put(entry.processID, entry);
+
+        lock.release();
+
+        return entry.processID;
+    }
+
+    /**
+     * Make one process the parent of another.
+     *
+     * @param	childID	the process ID of the child.
+     * @param	parentID	the process ID of the parent.
+     */
+    public void setParent(int childID, int parentID) {
+        lock.acquire();
+
+        Entry child = entries.get(childID);
+        Entry parent = entries.get(parentID);
+        Lib.assertTrue(child != null && parent != null);
+        Lib.assertTrue(child.parent == null);
+
+        child.parent = parent;
+        parent.children.add(child);
+
+        lock.release();
+    }
+
+    /**
+     * Remove a process that never ran, such as one whose executable could
+     * not be loaded.
+     *
+     * @param	processID	the process ID of the process.
+     */
+    public void remove(int processID) {
+        lock.acquire();
+
+        Entry entry = entries.remove(processID);
+        Lib.assertTrue(entry != null && entry.children.isEmpty());
+        if (entry.parent != null)
+            entry.parent.children.remove(entry);
+
+        lock.release();
+    }
+
+    /**
+     * Return the process with process ID <i>processID</i>.
+     *
+     * @param	processID	the process ID.
+     * @return	the process, or <tt>null</tt> if it is not in the table.
+     */
+    public UserProcess get(int processID) {
+        lock.acquire();
+
+        Entry entry = entries.get(processID);
+
+        lock.release();
+
+        return (entry == null) ? null : entry.process;
+    }
+
+    /**
+     * Record that a process has exited, and wake its parent if the parent is
+     * waiting for it. Its children no longer have a parent.
+     *
+     * @param	processID	the process ID of the process.
+     * @param	status	the exit status.
+     * @param	normal	<tt>true</tt> if the process called <tt>exit</tt>,
+     *			<tt>false</tt> if it was killed by an exception.
+     */
+    public void exit(int processID, int status, boolean normal) {
+        lock.acquire();
+
+        Entry entry = entries.get(processID);
+        Lib.assertTrue(entry != null && !entry.exited);
+
+        entry.exited = true;
+        entry.status = status;
+        entry.normal = normal;
+
+        // nobody will collect the children's statuses now
+        for (Iterator<Entry> i=entry.children.iterator(); i.hasNext(); ) {
+            Entry child = i.next();
+            child.parent = null;
+            if (child.exited)
+                entries.remove(child.processID);
+        }
+        entry.children.clear();
+        entry.exitedChildren.clear();
+
+        if (entry.parent != null) {
+            entry.parent.exitedChildren.add(entry);
+            entry.parent.childExited.wakeAll();
+        }
+        else {
+            entries.remove(processID);
+        }
+
+        lock.release();
+    }
+
+    /**
+     * Wait for a child to exit, and collect its exit status. Afterwards the
+     * child is no longer in the table.
+     *
+     * @param	parentID	the process ID of the waiting process.
+     * @param	childID	the process ID of the child.
+     * @param	status	where to store the child's exit status.
+     * @return	1 if the child called <tt>exit</tt>, 0 if it was killed by
+     *		an exception, or -1 if it is not a child of
+     *		<i>parentID</i>.
+     */
+    public int join(int parentID, int childID, int[] status) {
+        lock.acquire();
+
+        Entry parent = entries.get(parentID);
+        Entry child = entries.get(childID);
+        if (parent == null || child == null || child.parent != parent) {
+            lock.release();
+            return -1;
+        }
+
+        while (!child.exited)
+            parent.childExited.sleep();
+
+        int result = reap(parent, child, status);
+
+        lock.release();
+
+        return result;
+    }
+
+    /**
+     * Wait for any child to exit, and collect its exit status. Children that
+     * have already exited are collected in the order they exited.
+     *
+     * @param	parentID	the process ID of the waiting process.
+     * @param	child	where to store the process ID of the child and its
+     *			exit status, in that order.
+     * @return	1 if the child called <tt>exit</tt>, 0 if it was killed by
+     *		an exception, or -1 if <i>parentID</i> has no children.
+     */
+    public int joinAny(int parentID, int[] child) {
+        lock.acquire();
+
+        Entry parent = entries.get(parentID);
+        if (parent == null || parent.children.isEmpty()) {
+            lock.release();
+            return -1;
+        }
+
+        while (parent.exitedChildren.isEmpty())
+            parent.childExited.sleep();
+
+        Entry first = parent.exitedChildren.iterator().next();
+        int[] status = new int[1];
+        int result = reap(parent, first, status);
+        child[0] = first.processID;
+        child[1] = status[0];
+
+        lock.release();
+
+        return result;
+    }
+
+    /**
+     * Return the number of processes in the table.
+     *
+     * @return	the number of processes that are running, or have exited
+     *		and are waiting for their status to be collected.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private int reap(Entry parent, Entry child, int[] status) {
+        parent.children.remove(child);
+        parent.exitedChildren.remove(child);
+        entries.remove(child.processID);
+
+        status[0] = child.status;
+        return child.normal ? 1 : 0;
+    }
+
+    /** A process, its family, and its exit status once it has one. */
+    private class Entry {
+        Entry(int processID, UserProcess process) {
+            this.processID = processID;
+            this.process = process;
+        }
+
+        int processID;
+        UserProcess process;
+        Entry parent = null;
+        HashSet<Entry> children = new HashSet<Entry>();
+        /** The children that have exited, in the order they did. */
+        LinkedHashSet<Entry> exitedChildren = new LinkedHashSet<Entry>();
+        /** Signalled when a child exits. */
+        Condition2 childExited = new Condition2(lock);
+        boolean exited = false;
+        boolean normal = false;
+        int status = 0;
+    }
+
+    private static class ExitTest implements Runnable {
+        ExitTest(ProcessTable table, int processID, int status) {
+            this.table = table;
+            this.processID = processID;
+            this.status = status;
+        }
+
+        public void run() {
+            table.exit(processID, status, status >= 0);
+        }
+
+        private ProcessTable table;
+        private int processID, status;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        ProcessTable table = new ProcessTable();
+
+        int parent = table.add(null);
+        int first = table.add(null);
+        int second = table.add(null);
+        int third = table.add(null);
+        Lib.assertTrue(parent == 0 && third == 3 && table.size() == 4);
+        table.setParent(first, parent);
+        table.setParent(second, parent);
+        table.setParent(third, parent);
+
+        int[] status = new int[1];
+        Lib.assertTrue(table.join(first, second, status) == -1);
+
+        // join-any waits for the first child to exit, then takes the next
+        // one that already has
+        KThread killed = new KThread(new ExitTest(table, second, -1));
+        killed.setName("process table test").fork();
+        int[] child = new int[2];
+        Lib.assertTrue(table.joinAny(parent, child) == 0);
+        Lib.assertTrue(child[0] == second && child[1] == -1);
+        killed.join();
+
+        table.exit(third, 3, true);
+        table.exit(first, 1, true);
+        Lib.assertTrue(table.joinAny(parent, child) == 1 && child[0] == third);
+
+        // a child can be joined by ID after it has exited, but only once
+        Lib.assertTrue(table.join(parent, first, status) == 1);
+        Lib.assertTrue(status[0] == 1);
+        Lib.assertTrue(table.join(parent, first, status) == -1);
+        Lib.assertTrue(table.joinAny(parent, child) == -1);
+
+        // a process that never ran is just dropped
+        int failed = table.add(null);
+        table.setParent(failed, parent);
+        table.remove(failed);
+        Lib.assertTrue(table.joinAny(parent, child) == -1);
+
+        // an orphan leaves the table as soon as it exits
+        int orphan = table.add(null);
+        table.setParent(orphan, parent);
+        table.exit(parent, 0, true);
+        Lib.assertTrue(table.size() == 1);
+        table.exit(orphan, 0, true);
+        Lib.assertTrue(table.size() == 0 && table.get(orphan) == null);
+
+        Lib.debug(dbgTable, "[ PROCESS TABLE TESTS ]: PASSED");
+    }
+
+    private Lock lock = new Lock();
+    private HashMap<Integer, Entry> entries = new HashMap<Integer, Entry>();
+    private int nextID = 0;
+
+    private static final char dbgTable = 'x';
+}
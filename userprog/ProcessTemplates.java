@@ -0,0 +1,234 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Pre-initialized images of recently executed programs. When a process has
+ * loaded an executable from its file, the kernel saves a copy of the newly
+ * loaded writable pages, together with the layout and entry point it worked
+ * out from the headers. The next process that runs the same executable is
+ * cloned from this template. It checks no headers and reads nothing from the
+ * file: each writable page is one memory copy. Read-only pages are shared
+ * through the <tt>TextPageCache</tt> and need no copy at all.
+ *
+ * <p>
+ * Templates are kept in kernel memory rather than in physical pages, which
+ * are much scarcer. They are keyed by the <tt>Coff</tt> that the
+ * <tt>ExecutableCache</tt> hands out, so a file that changes gets a new
+ * template. The <tt>ExecutableCache</tt> drops an executable's template when
+ * it closes the <tt>Coff</tt>. At most <tt>maxTemplates</tt> are kept, and
+ * the least recently used is dropped first.
+ */
+public class ProcessTemplates {
+    /**
+     * Allocate a new, empty set of templates.
+     */
+    public ProcessTemplates() {
+    }
+
+    /**
+     * Return the template for <i>coff</i>.
+     *
+     * @param	coff	the executable.
+     * @return	its template, or <tt>null</tt> if none has been saved.
+     */
+    public Template get(Coff coff) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        Template template = templates.get(coff);
+        if (template != null)
+            numClones++;
+
+        Machine.interrupt().restore(intStatus);
+
+        return template;
+    }
+
+    /**
+     * Save a template for <i>coff</i> from a process that has just loaded it,
+     * before the process has run. The sections must be contiguous and start
+     * at virtual page 0.
+     *
+     * @param	coff	the executable.
+     * @param	pageTable	the page table of the process that loaded it.
+     */
+    public void save(Coff coff, TranslationEntry[] pageTable) {
+        int numPages = 0;
+        for (int s=0; s<coff.getNumSections(); s++)
+            numPages += coff.getSection(s).getLength();
+
+        Template template = new Template(numPages, coff.getEntryPoint());
+
+        byte[] memory = Machine.processor().getMemory();
+        for (int vpn=0; vpn<numPages; vpn++) {
+            if (pageTable[vpn].readOnly)
+                continue;
+
+            template.pages[vpn] = new byte[pageSize];
+            System.arraycopy(memory, pageTable[vpn].ppn*pageSize,
+                             template.pages[vpn], 0, pageSize);
+        }
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        if (!templates.containsKey(coff)) {
+            if (templates.size() >= maxTemplates)
+                templates.remove(templates.keySet().iterator().next());
+            templates.put(coff, template);
+        }
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Drop the template for <i>coff</i>, if there is one.
+     *
+     * @param	coff	an executable that is being closed.
+     */
+    public void remove(Coff coff) {
+        boolean intStatus = Machine.interrupt().disable();
+
+        templates.remove(coff);
+
+        Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Return the number of templates kept.
+     *
+     * @return	the number of executables that have a template.
+     */
+    public int getNumTemplates() {
+        return templates.size();
+    }
+
+    /**
+     * Return the number of processes cloned from a template.
+     *
+     * @return	the number of successful <tt>get()</tt> calls.
+     */
+    public int getNumClones() {
+        return numClones;
+    }
+
+    /**
+     * The saved state of a freshly loaded executable.
+     */
+    public static class Template {
+        Template(int numPages, int entryPoint) {
+            this.numPages = numPages;
+            this.entryPoint = entryPoint;
+            pages = new byte[numPages][];
+        }
+
+        /**
+         * Return the number of pages taken by the executable's sections.
+         *
+         * @return	the number of section pages.
+         */
+        public int getNumPages() {
+            return numPages;
+        }
+
+        /**
+         * Return the initial program counter.
+         *
+         * @return	the executable's entry point.
+         */
+        public int getEntryPoint() {
+            return entryPoint;
+        }
+
+        /**
+         * Copy the saved contents of a writable page into physical memory.
+         *
+         * @param	vpn	the virtual page to copy.
+         * @param	ppn	the physical page to copy it into.
+         */
+        public void copyPage(int vpn, int ppn) {
+            Lib.assertTrue(pages[vpn] != null);
+
+            System.arraycopy(pages[vpn], 0, Machine.processor().getMemory(),
+                             ppn*pageSize, pageSize);
+        }
+
+        private int numPages;
+        private int entryPoint;
+        /** The contents of each writable page, or <tt>null</tt>. */
+        private byte[][] pages;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        Coff coff = UserKernel.executables.acquire("echo.coff");
+        if (coff == null) {
+            Lib.debug(dbgTemplates, "[ PROCESS TEMPLATE TESTS ]: SKIPPED");
+            return;
+        }
+
+        ProcessTemplates templates = new ProcessTemplates();
+        Lib.assertTrue(templates.get(coff) == null);
+
+        // load the writable sections as a process would, and save them
+        int numPages = 0;
+        for (int s=0; s<coff.getNumSections(); s++)
+            numPages += coff.getSection(s).getLength();
+        int[] ppns = UserKernel.freePhysicalPages.allocate(numPages + 1);
+        Lib.assertTrue(ppns != null);
+
+        TranslationEntry[] pageTable = new TranslationEntry[numPages];
+        for (int s=0; s<coff.getNumSections(); s++) {
+            CoffSection section = coff.getSection(s);
+            for (int i=0; i<section.getLength(); i++) {
+                int vpn = section.getFirstVPN() + i;
+                if (!section.isReadOnly())
+                    section.loadPage(i, ppns[vpn]);
+                pageTable[vpn] = new TranslationEntry(vpn, ppns[vpn], true,
+                                                      section.isReadOnly(),
+                                                      false, false);
+            }
+        }
+        templates.save(coff, pageTable);
+
+        // a clone gets the same entry point and page contents
+        Template template = templates.get(coff);
+        Lib.assertTrue(template != null && templates.getNumClones() == 1);
+        Lib.assertTrue(template.getEntryPoint() == coff.getEntryPoint());
+        Lib.assertTrue(template.getNumPages() == numPages);
+
+        byte[] memory = Machine.processor().getMemory();
+        int spare = ppns[numPages];
+        for (int vpn=0; vpn<numPages; vpn++) {
+            if (pageTable[vpn].readOnly)
+                continue;
+            template.copyPage(vpn, spare);
+            for (int i=0; i<pageSize; i++) {
+                Lib.assertTrue(memory[spare*pageSize + i]
+                               == memory[ppns[vpn]*pageSize + i]);
+            }
+        }
+
+        UserKernel.freePhysicalPages.free(ppns);
+        UserKernel.executables.release(coff);
+
+        templates.remove(coff);
+        Lib.assertTrue(templates.getNumTemplates() == 0);
+
+        Lib.debug(dbgTemplates, "[ PROCESS TEMPLATE TESTS ]: PASSED");
+    }
+
+    /** The most templates kept at once. */
+    public static final int maxTemplates = 8;
+
+    /** The template of each executable, least recently used first. */
+    private LinkedHashMap<Coff, Template> templates =
+        new LinkedHashMap<Coff, Template>(16, 0.75f, true);
+    private int numClones = 0;
+
+    private static final int pageSize = Processor.pageSize;
+    private static final char dbgTemplates = 'x';
+}
@@ -0,0 +1,198 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * System call telemetry: how many times each system call was made, a
+ * histogram of how many ticks each took, and how many bytes were read and
+ * written. <tt>UserProcess.handleSyscall()</tt> records every call in the
+ * calling process's statistics and in a kernel-wide total.
+ *
+ * <p>
+ * Statistics are off unless <tt>UserKernel.syscallStats</tt> is set to
+ * <tt>true</tt> in the configuration file. When they are on, each process
+ * prints its own when it exits, and <tt>UserKernel.terminate()</tt> prints
+ * the totals just before the machine halts. Every line printed starts with
+ * <tt>syscalls.</tt>, followed by a record type and space-separated
+ * <tt>key=value</tt> fields, like the thread telemetry.
+ */
+public class SyscallStats {
+    /**
+     * Allocate empty statistics.
+     *
+     * @param	owner	the process ID these statistics belong to, or
+     *			<tt>all</tt> for the kernel-wide totals.
+     */
+    public SyscallStats(String owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Record that a system call has been made. Counted on entry, so that
+     * calls that never return, like <tt>exit</tt>, are counted too.
+     *
+     * @param	syscall	the system call number.
+     */
+    public void started(int syscall) {
+        if (!enabled)
+            return;
+
+        count(syscall);
+        total.count(syscall);
+    }
+
+    /**
+     * Record that a system call has returned.
+     *
+     * @param	syscall	the system call number.
+     * @param	ticks	the number of ticks the call took.
+     * @param	result	the value returned to the process.
+     */
+    public void finished(int syscall, long ticks, int result) {
+        if (!enabled)
+            return;
+
+        finish(syscall, ticks, result);
+        total.finish(syscall, ticks, result);
+    }
+
+    /**
+     * Return the number of times <i>syscall</i> has been made.
+     *
+     * @param	syscall	the system call number.
+     * @return	the number of calls.
+     */
+    public int getCount(int syscall) {
+        return (syscall >= 0 && syscall < numSyscalls) ? counts[syscall] : 0;
+    }
+
+    /**
+     * Return the number of bytes that <tt>read</tt> and <tt>readv</tt> have
+     * returned.
+     *
+     * @return	the number of bytes read.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Return the number of bytes that <tt>write</tt> and <tt>writev</tt> have
+     * written.
+     *
+     * @return	the number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void count(int syscall) {
+        if (syscall >= 0 && syscall < numSyscalls)
+            counts[syscall]++;
+    }
+
+    private void finish(int syscall, long ticks, int result) {
+        if (syscall < 0 || syscall >= numSyscalls)
+            return;
+
+        this.ticks[syscall] += ticks;
+        if (latency[syscall] == null)
+            latency[syscall] = new ThreadStats.Histogram();
+        latency[syscall].add(ticks, 1);
+
+        if (result > 0) {
+            if (syscall == UserProcess.syscallRead
+                || syscall == UserProcess.syscallReadv)
+                bytesRead += result;
+            else if (syscall == UserProcess.syscallWrite
+                     || syscall == UserProcess.syscallWritev)
+                bytesWritten += result;
+        }
+    }
+
+    /**
+     * Print these statistics, if statistics are on.
+     */
+    public void print() {
+        if (!enabled)
+            return;
+
+        String pid = " pid=" + owner;
+        for (int syscall=0; syscall<numSyscalls; syscall++) {
+            if (counts[syscall] == 0)
+                continue;
+
+            String name = " syscall=" + names[syscall];
+            System.out.println("syscalls.count" + pid + name
+                               + " calls=" + counts[syscall]
+                               + " ticks=" + ticks[syscall]);
+            if (latency[syscall] != null)
+                latency[syscall].print("syscalls.latency", pid + name);
+        }
+        System.out.println("syscalls.bytes" + pid + " read=" + bytesRead
+                           + " written=" + bytesWritten);
+    }
+
+    /**
+     * Print the kernel-wide totals, if statistics are on.
+     */
+    public static void printTotal() {
+        total.print();
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        // record into a private instance only, leaving the totals alone
+        SyscallStats stats = new SyscallStats("test");
+
+        stats.count(UserProcess.syscallRead);
+        stats.finish(UserProcess.syscallRead, 1000, 100);
+        stats.count(UserProcess.syscallWritev);
+        stats.finish(UserProcess.syscallWritev, 2000, 30);
+        stats.count(UserProcess.syscallRead);
+        stats.finish(UserProcess.syscallRead, 0, -1);
+        stats.count(UserProcess.syscallExit);
+        stats.count(99);
+        stats.finish(99, 10, 10);
+
+        Lib.assertTrue(stats.getCount(UserProcess.syscallRead) == 2);
+        Lib.assertTrue(stats.getCount(UserProcess.syscallExit) == 1);
+        Lib.assertTrue(stats.getCount(-1) == 0 && stats.getCount(99) == 0);
+        Lib.assertTrue(stats.getBytesRead() == 100);
+        Lib.assertTrue(stats.getBytesWritten() == 30);
+        Lib.assertTrue(stats.ticks[UserProcess.syscallRead] == 1000);
+        Lib.assertTrue(stats.latency[UserProcess.syscallExit] == null);
+
+        Lib.debug(dbgStats, "[ SYSCALL STATS TESTS ]: PASSED");
+    }
+
+    /**
+     * Whether statistics are being collected. Set from
+     * <tt>UserKernel.syscallStats</tt> when the kernel is created.
+     */
+    static boolean enabled = false;
+
+    /** The names of the system calls, indexed by number. */
+    private static final String[] names = {
+        "halt", "exit", "exec", "join", "creat", "open", "read", "write",
+        "close", "unlink", "mmap", "connect", "accept", "dup", "readv",
+        "writev", "ringSetup", "ringEnter", "joinAny"
+    };
+    private static final int numSyscalls = names.length;
+
+    private String owner;
+    private int[] counts = new int[numSyscalls];
+    private long[] ticks = new long[numSyscalls];
+    private ThreadStats.Histogram[] latency =
+        new ThreadStats.Histogram[numSyscalls];
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
+
+    /** The totals over every process. */
+    private static SyscallStats total = new SyscallStats("all");
+
+    private static final char dbgStats = 'x';
+}
@@ -0,0 +1,186 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+import java.util.HashMap;
+
+/**
+ * Shares the read-only pages of an executable between the processes running
+ * it. The first process to map an executable loads its read-only sections
+ * into physical pages. Every later process running the same executable maps
+ * those same pages into its page table. Nothing is copied, and no more
+ * memory is allocated.
+ *
+ * <p>
+ * Executables are identified by their <tt>Coff</tt>, which the
+ * <tt>ExecutableCache</tt> hands out once per version of a file. The number
+ * of processes mapping each executable is counted. Its pages are freed when
+ * the last of them unmaps it.
+ */
+public class TextPageCache {
+    /**
+     * Allocate a new text page cache that takes its pages from
+     * <i>pages</i>.
+     *
+     * @param	pages	the allocator to take physical pages from.
+     */
+    public TextPageCache(PageAllocator pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * Map the read-only pages of <i>coff</i>, loading them if no other
+     * process has them mapped. Its sections must be contiguous and start at
+     * virtual page 0.
+     *
+     * @param	coff	the executable.
+     * @return	the physical page of each of its virtual pages, or -1 for
+     *		the pages of writable sections, which are not shared. Returns
+     *		<tt>null</tt> if there was not enough free memory.
+     */
+    public int[] map(Coff coff) {
+        lock.acquire();
+
+        Image image = images.get(coff);
+        if (image == null) {
+            image = load(coff);
+            if (image != null)
+                images.put(coff, image);
+        }
+        if (image != null)
+            image.mappers++;
+
+        lock.release();
+
+        return (image == null) ? null : image.ppns;
+    }
+
+    /**
+     * Unmap the read-only pages of <i>coff</i>. They are freed if no other
+     * process has them mapped.
+     *
+     * @param	coff	an executable previously passed to <tt>map()</tt>.
+     */
+    public void unmap(Coff coff) {
+        lock.acquire();
+
+        Image image = images.get(coff);
+        Lib.assertTrue(image != null && image.mappers > 0);
+
+        if (--image.mappers == 0) {
+            images.remove(coff);
+            for (int vpn=0; vpn<image.ppns.length; vpn++) {
+                if (image.ppns[vpn] != -1)
+                    pages.free(image.ppns[vpn]);
+            }
+            numShared -= image.numPages;
+        }
+
+        lock.release();
+    }
+
+    /**
+     * Return the number of physical pages holding shared read-only pages.
+     *
+     * @return	the number of pages currently cached.
+     */
+    public int getNumShared() {
+        return numShared;
+    }
+
+    private Image load(Coff coff) {
+        int length = 0, numReadOnly = 0;
+        for (int s=0; s<coff.getNumSections(); s++) {
+            CoffSection section = coff.getSection(s);
+            length += section.getLength();
+            if (section.isReadOnly())
+                numReadOnly += section.getLength();
+        }
+
+        int[] ppns = pages.allocate(numReadOnly);
+        if (ppns == null)
+            return null;
+
+        Image image = new Image(length, numReadOnly);
+        int next = 0;
+        for (int s=0; s<coff.getNumSections(); s++) {
+            CoffSection section = coff.getSection(s);
+            for (int i=0; i<section.getLength(); i++) {
+                int vpn = section.getFirstVPN() + i;
+                if (section.isReadOnly()) {
+                    image.ppns[vpn] = ppns[next++];
+                    section.loadPage(i, image.ppns[vpn]);
+                }
+                else {
+                    image.ppns[vpn] = -1;
+                }
+            }
+        }
+        numShared += numReadOnly;
+
+        return image;
+    }
+
+    /** The shared pages of one executable. */
+    private static class Image {
+        Image(int length, int numPages) {
+            ppns = new int[length];
+            this.numPages = numPages;
+        }
+
+        int[] ppns;
+        int numPages;
+        int mappers = 0;
+    }
+
+    /**
+     * Test if this module is working.
+     */
+    public static void selfTest() {
+        PageAllocator pages = UserKernel.freePhysicalPages;
+        TextPageCache cache = new TextPageCache(pages);
+
+        Coff coff = UserKernel.executables.acquire("echo.coff");
+        if (coff == null) {
+            Lib.debug(dbgText, "[ TEXT PAGE CACHE TESTS ]: SKIPPED");
+            return;
+        }
+        int numFree = pages.getNumFree();
+
+        // the second mapping shares the first one's pages
+        int[] first = cache.map(coff);
+        int shared = cache.getNumShared();
+        Lib.assertTrue(first != null && shared > 0);
+        Lib.assertTrue(pages.getNumFree() == numFree - shared);
+        Lib.assertTrue(cache.map(coff) == first);
+        Lib.assertTrue(pages.getNumFree() == numFree - shared);
+
+        // the pages hold the executable's text
+        byte[] memory = Machine.processor().getMemory();
+        boolean loaded = false;
+        for (int vpn=0; vpn<first.length; vpn++) {
+            for (int i=0; first[vpn] != -1 && i<Processor.pageSize; i++)
+                loaded |= memory[first[vpn]*Processor.pageSize + i] != 0;
+        }
+        Lib.assertTrue(loaded);
+
+        // only the last unmap frees them
+        cache.unmap(coff);
+        Lib.assertTrue(pages.getNumFree() == numFree - shared);
+        cache.unmap(coff);
+        Lib.assertTrue(pages.getNumFree() == numFree);
+        Lib.assertTrue(cache.getNumShared() == 0);
+
+        UserKernel.executables.release(coff);
+
+        Lib.debug(dbgText, "[ TEXT PAGE CACHE TESTS ]: PASSED");
+    }
+
+    private PageAllocator pages;
+    private Lock lock = new Lock();
+    private HashMap<Coff, Image> images = new HashMap<Coff, Image>();
+    private int numShared = 0;
+
+    private static final char dbgText = 'x';
+}
@@ -57,6 +57,15 @@ public class UThread extends KThread {
         process.restoreState();
     }
 
+    /**
+     * Gang-schedule this thread with the other threads of its process.
+     *
+     * @return	the process this thread belongs to.
+     */
+    protected Object getGang() {
+        return process;
+    }
+
     /**
      * Storage for the user register set.
      *
@@ -13,6 +13,9 @@ public class UserKernel extends ThreadedKernel {
      */
     public UserKernel() {
 	    super();
+
+        SyscallStats.enabled =
+                Config.getBoolean("UserKernel.syscallStats", false);
     }
 
     /**
@@ -22,11 +25,13 @@ public class UserKernel extends ThreadedKernel {
     public void initialize(String[] args) {
         super.initialize(args);
 
-        freePhysicalPages = new PageQueue();
-        for (int i = 0; i < Machine.processor().getNumPhysPages(); i++) {
-            freePhysicalPages.push(i);
-        }
+        freePhysicalPages =
+                new PageAllocator(Machine.processor().getNumPhysPages());
         //freePhysicalPages.printVisualization();
+        executables = new ExecutableCache();
+        textPages = new TextPageCache(freePhysicalPages);
+        templates = new ProcessTemplates();
+        processes = new ProcessTable();
 
         console = new SynchConsole(Machine.console());
 
@@ -46,6 +51,16 @@ public class UserKernel extends ThreadedKernel {
 
         System.out.println("Running LotteryScheduler Tests");
         LotterySchedulerTest.runall();
+        FileTable.selfTest();
+        PageAllocator.selfTest();
+        ExecutableCache.selfTest();
+        TextPageCache.selfTest();
+        ProcessTemplates.selfTest();
+        SyscallStats.selfTest();
+        ProcessTable.selfTest();
+
+        if (Lib.test('B'))
+            WorkloadBenchmark.benchmark();
 
         /**
 
@@ -103,6 +118,7 @@ public class UserKernel extends ThreadedKernel {
     public void run() {
         super.run();
         UserProcess process = UserProcess.newUserProcess();
+        process.setRoot();
         String shellProgram = Machine.getShellProgramName();
 
         /*
@@ -123,6 +139,7 @@ public class UserKernel extends ThreadedKernel {
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+        SyscallStats.printTotal();
 	    super.terminate();
     }
 
@@ -133,150 +150,13 @@ public class UserKernel extends ThreadedKernel {
     private static Coff dummy1 = null;
 
     // For part 2
-    static PageQueue freePhysicalPages;
-
-    static class PageQueue {
-        PageQueueNode first;
-        PageQueueNode last;
-        Lock lock;
-        int size;
-
-        PageQueue() {
-            first = null;
-            last = null;
-            lock = new Lock();
-            size = 0;
-        }
-
-        void push(int page) {
-            if (last == null) {
-                last = new PageQueueNode(page, null);
-                first = last;
-            } else {
-                last.next = new PageQueueNode(page, null);
-                last = last.next;
-            }
-            size++;
-        }
-
-        int pop() {
-            int page = first.page;
-            first = first.next;
-            if (first == null) {
-                last = null;
-            }
-            size--;
-            return page;
-        }
-
-        public String toString() {
-            if (first != null) {
-                return "PQ [" + first.toString();
-            } else {
-                return "PQ []";
-            }
-        }
-
-        void printVisualization() {
-            int numPhysPages = Machine.processor().getNumPhysPages();
-            boolean[] physPagesFree = new boolean[numPhysPages];
-
-            for (PageQueueNode node = first;
-                 node != null; node = node.next) {
-                physPagesFree[node.page] = true;
-            }
-
-            String freeVisualization = "FREE PHYS [";
-            for (int i = 0; i < numPhysPages; i++) {
-                if (physPagesFree[i]) {
-                    freeVisualization += "_";
-                } else {
-                    freeVisualization += " ";
-                }
-            }
-            freeVisualization += ']';
-            System.out.println(freeVisualization);
-        }
-
-        class PageQueueNode {
-            int page;
-            PageQueueNode next;
-
-            public String toString() {
-                if (next != null) {
-                    return page + " " + next.toString();
-                } else {
-                    return page + "]";
-                }
-            }
-
-            PageQueueNode(int page, PageQueueNode next) {
-                this.page = page;
-                this.next = next;
-            }
-        }
-
-        static void selfTest() {
-            /* Checks queueing behavior, not lock behavior */
-            PageQueue q = new PageQueue();
-            int p;
-            String failmsg = "PageQueue selfTest failed";
-
-            // ACQUIRE LOCK
-
-            Lib.assertTrue(q.toString().equals("PQ []"), failmsg);
-            Lib.assertTrue(q.size == 0);
-
-            q.push(0);
-            Lib.assertTrue(q.toString().equals("PQ [0]"), failmsg);
-            Lib.assertTrue(q.size == 1, failmsg);
-
-            q.push(1);
-            q.push(2);
-            q.push(3);
-
-            Lib.assertTrue(q.toString().equals("PQ [0 1 2 3]"), failmsg);
-            Lib.assertTrue(q.size == 4);
-
-            p = q.pop();
-            Lib.assertTrue(p == 0, failmsg);
-            Lib.assertTrue(q.toString().equals("PQ [1 2 3]"), failmsg);
-            Lib.assertTrue(q.size == 3, failmsg);
-
-            p = q.pop();
-            Lib.assertTrue(p == 1, failmsg);
-            Lib.assertTrue(q.toString().equals("PQ [2 3]"), failmsg);
-            Lib.assertTrue(q.size == 2, failmsg);
-
-            q.push(0);
-            Lib.assertTrue(q.toString().equals("PQ [2 3 0]"), failmsg);
-            Lib.assertTrue(q.size == 3, failmsg);
-
-            q.push(5);
-            Lib.assertTrue(q.toString().equals("PQ [2 3 0 5]"), failmsg);
-            Lib.assertTrue(q.size == 4, failmsg);
-
-            p = q.pop();
-            Lib.assertTrue(p == 2, failmsg);
-            Lib.assertTrue(q.toString().equals("PQ [3 0 5]"), failmsg);
-            Lib.assertTrue(q.size == 3, failmsg);
-
-            p = q.pop();
-            p = q.pop();
-            p = q.pop();
-            Lib.assertTrue(p == 5, failmsg);
-            Lib.assertTrue(q.toString().equals("PQ []"), failmsg);
-            Lib.assertTrue(q.size == 0, failmsg);
-
-            q.push(16);
-            q.push(1);
-            q.push(2);
-            q.push(3);
-
-            Lib.assertTrue(q.toString().equals("PQ [16 1 2 3]"), failmsg);
-            Lib.assertTrue(q.size == 4);
-
-            System.out.println("\nUserKernel.PageQueue self tests passed");
-        }
-    }
+    static PageAllocator freePhysicalPages;
+    /** Parsed executables, shared by every <tt>exec</tt> of the same file. */
+    static ExecutableCache executables;
+    /** Read-only executable pages, shared by the processes running them. */
+    static TextPageCache textPages;
+    /** Snapshots of freshly loaded executables that new processes clone. */
+    static ProcessTemplates templates;
+    /** Every process, by process ID, with its parent and exit status. */
+    static ProcessTable processes;
 }
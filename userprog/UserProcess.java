@@ -4,10 +4,6 @@ import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
 
-import java.io.EOFException;
-import java.util.ArrayList;
-import java.util.HashMap;
-
 /**
  * Encapsulates the state of a user process that is not contained in its
  * user thread (or threads). This includes its address translation state, a
@@ -22,35 +18,21 @@ import java.util.HashMap;
  */
 public class UserProcess {
 
-    /** A counter that is used to generate unique process IDs. */
-    static int IDCOUNTER = 0;
-
-    /** A lock that makes incrementing the counter atomic. */
-    static Lock IDCOUNTERLOCK = new Lock();
-
-    /** Unique identification for this process. */
+    /** Unique identification for this process, given by the kernel's
+     *  process table, which also records its parent and children. */
     private int processID;
 
-    /** The parent of this process is identified when EXEC() is called. */
-    private UserProcess parent;
-
-    /** A data structure that keeps tracks of its children when this process
-     *  calls EXEC(). */
-    private ArrayList<UserProcess> childrenProcesses;
-
-    /** List of File Descriptors that OPEN() and CLOSE() utilizes. */
-    private HashMap<Integer, OpenFile> openFiles;
-
-    /** A parent stores its child exit status in JOIN() when the child process
-     *  is terminated . */
-    private HashMap<Integer,Integer> childrenExitStatusTable;
+    /** The file descriptors that OPEN() and CLOSE() utilize. */
+    private FileTable openFiles;
 
     /** The thread pertaining to this process, since each process has one thread
      *  in Project 2. */
     private UThread MyThread;
-    private boolean isJoining;
-    private Lock joinLock;
-    private Condition2 joinCondition;
+    /** Set when this process is killed by an unhandled exception. */
+    private boolean killed = false;
+    /** Set for the first process the kernel runs, which alone may halt the
+     *  machine, and whose exit halts it. */
+    private boolean root = false;
     // part 2 visualization
     private boolean[] physPagesUsed;
 
@@ -58,25 +40,35 @@ public class UserProcess {
      * Allocate a new process.
      */
     public UserProcess() {
-        IDCOUNTERLOCK.acquire();
-        this.processID = IDCOUNTER;
-        IDCOUNTER++;
-        IDCOUNTERLOCK.release();
-
-        this.parent = null;
-        this.childrenProcesses = new ArrayList();
-        this.childrenExitStatusTable = new HashMap();
-        isJoining =false;
-        
+        this.processID = UserKernel.processes.add(this);
+        syscallStats = new SyscallStats(String.valueOf(processID));
+
 
-        openFiles = new HashMap<Integer, OpenFile>();
-        openFiles.put(new Integer(0), UserKernel.console.openForReading());
-        openFiles.put(new Integer(1), UserKernel.console.openForWriting());
+        openFiles = new FileTable();
+        openFiles.set(0, UserKernel.console.openForReading());
+        openFiles.set(1, UserKernel.console.openForWriting());
 
         int numPhysPages = Machine.processor().getNumPhysPages();
         physPagesUsed = new boolean[numPhysPages];
     }
 
+    /**
+     * Make this the root process: the one the kernel starts, which alone may
+     * halt the machine, and whose exit halts it.
+     */
+    void setRoot() {
+        root = true;
+    }
+
+    /**
+     * Return the process ID the kernel's process table gave this process.
+     *
+     * @return	the process ID.
+     */
+    int getProcessID() {
+        return processID;
+    }
+
     /**
      * Allocate and return a new process of the correct class. The class name
      * is specified by the <tt>nachos.conf</tt> key
@@ -356,31 +348,29 @@ public class UserProcess {
     private boolean load(String name, String[] args) {
         Lib.debug(dbgProcess, "UserProcess.load(\"" + name + "\")");
 
-        OpenFile executable = ThreadedKernel.fileSystem.open(name, false);
-        if (executable == null) {
-            Lib.debug(dbgProcess, "\topen failed");
-            return false;
-        }
-
-        try {
-            coff = new Coff(executable);
-        }
-        catch (EOFException e) {
-            executable.close();
+        coff = UserKernel.executables.acquire(name);
+        if (coff == null) {
             Lib.debug(dbgProcess, "\tcoff load failed");
             return false;
         }
 
-        // make sure the sections are contiguous and start at page 0
-        numPages = 0;
-        for (int s = 0; s < coff.getNumSections(); s++) {
-            CoffSection section = coff.getSection(s);
-            if (section.getFirstVPN() != numPages) {
-                coff.close();
-                Lib.debug(dbgProcess, "\tfragmented executable");
-                return false;
+        // a recently loaded executable needs no checking
+        template = UserKernel.templates.get(coff);
+        if (template != null) {
+            numPages = template.getNumPages();
+        }
+        else {
+            // make sure the sections are contiguous and start at page 0
+            numPages = 0;
+            for (int s = 0; s < coff.getNumSections(); s++) {
+                CoffSection section = coff.getSection(s);
+                if (section.getFirstVPN() != numPages) {
+                    UserKernel.executables.release(coff);
+                    Lib.debug(dbgProcess, "\tfragmented executable");
+                    return false;
+                }
+                numPages += section.getLength();
             }
-            numPages += section.getLength();
         }
 
         // make sure the argv array will fit in one page
@@ -392,13 +382,14 @@ public class UserProcess {
             argsSize += 4 + argv[i].length + 1;
         }
         if (argsSize > pageSize) {
-            coff.close();
+            UserKernel.executables.release(coff);
             Lib.debug(dbgProcess, "\targuments too long");
             return false;
         }
 
         // program counter initially points at the program entry point
-        initialPC = coff.getEntryPoint();
+        initialPC = (template != null) ? template.getEntryPoint()
+                                       : coff.getEntryPoint();
 
         // next comes the stack; stack pointer initially points to top of it
         numPages += stackPages;
@@ -411,30 +402,26 @@ public class UserProcess {
         if (!loadSections())
             return false;
 
-        // store arguments in last page
+        // store arguments in last page, built in the kernel and copied once
         int entryOffset = (numPages-1)*pageSize;
-        int stringOffset = entryOffset + args.length*4;
+        byte[] argPage = new byte[argsSize];
+        int stringOffset = args.length*4;
 
         this.argc = args.length;
         this.argv = entryOffset;
 
         for (int i=0; i<argv.length; i++) {
-            byte[] stringOffsetBytes = Lib.bytesFromInt(stringOffset);
-            Lib.assertTrue(
-                    writeVirtualMemory(entryOffset,stringOffsetBytes) == 4);
-            entryOffset += 4;
-            Lib.assertTrue(writeVirtualMemory(stringOffset, argv[i])
-                    == argv[i].length);
+            Lib.bytesFromInt(argPage, i*4, entryOffset + stringOffset);
+            System.arraycopy(argv[i], 0, argPage, stringOffset,
+                    argv[i].length);
             Lib.debug(dbgProcess, "Wrote argument " + i + " ("
-                    + new String(argv[i]) + ") to " + stringOffset);
-            stringOffset += argv[i].length;
-            Lib.assertTrue(
-                    writeVirtualMemory(
-                            stringOffset,new byte[] {
-                            0 })
-                            == 1);
-            stringOffset += 1;
+                    + new String(argv[i]) + ") to "
+                    + (entryOffset + stringOffset));
+            // the null byte is already there
+            stringOffset += argv[i].length + 1;
         }
+        Lib.assertTrue(writeVirtualMemory(entryOffset, argPage)
+                == argPage.length);
         return true;
     }
 
@@ -446,17 +433,44 @@ public class UserProcess {
      * @return	<tt>true</tt> if the sections were successfully loaded.
      */
     protected boolean loadSections() {
-        pageTable = new TranslationEntry[numPages];
+        // read-only pages are shared with other processes running this file
+        int[] shared = UserKernel.textPages.map(coff);
+        if (shared == null) {
+            UserKernel.executables.release(coff);
+            Lib.debug(dbgProcess, "\tinsufficient physical memory");
+            return false;
+        }
 
-        UserKernel.freePhysicalPages.lock.acquire();
+        int numPrivate = numPages;
+        for (int vpn = 0; vpn < shared.length; vpn++) {
+            if (shared[vpn] != -1)
+                numPrivate--;
+        }
 
-        if (numPages > UserKernel.freePhysicalPages.size) {
-            coff.close();
+        // prefer one physical run, so reads and writes that span several
+        // pages reach the file in one operation
+        int[] ppns = null;
+        int firstPrivate = (numPrivate > 0)
+            ? UserKernel.freePhysicalPages.allocateContiguous(numPrivate) : -1;
+        if (firstPrivate != -1) {
+            ppns = new int[numPrivate];
+            for (int i = 0; i < numPrivate; i++)
+                ppns[i] = firstPrivate + i;
+        }
+        else {
+            ppns = UserKernel.freePhysicalPages.allocate(numPrivate);
+        }
+        if (ppns == null) {
+            UserKernel.textPages.unmap(coff);
+            UserKernel.executables.release(coff);
             Lib.debug(dbgProcess, "\tinsufficient physical memory");
             return false;
         }
 
+        pageTable = new TranslationEntry[numPages];
+
         int vpn = 0;
+        int next = 0;
         int ppn;
         // load sections
         for (int s = 0; s < coff.getNumSections(); s++) {
@@ -466,9 +480,17 @@ public class UserProcess {
                     + " section (" + section.getLength() + " pages)");
 
             for (int i = 0; i < section.getLength(); i++) {
-                ppn = UserKernel.freePhysicalPages.pop();
+                if (section.isReadOnly()) {
+                    ppn = shared[vpn];
+                }
+                else {
+                    ppn = ppns[next++];
+                    if (template != null)
+                        template.copyPage(vpn, ppn);
+                    else
+                        section.loadPage(i, ppn);
+                }
                 physPagesUsed[ppn] = true;
-                section.loadPage(i, ppn);
 
                 pageTable[vpn] = new TranslationEntry(
                         vpn, ppn, true, section.isReadOnly(), false, false);
@@ -479,7 +501,7 @@ public class UserProcess {
 
         // allocate stackPages+1 pages for stack and args
         for (int i = 0; i < stackPages + 1; i++) {
-            ppn = UserKernel.freePhysicalPages.pop();
+            ppn = ppns[next++];
             physPagesUsed[ppn] = true;
 
             pageTable[vpn] = new TranslationEntry(
@@ -488,27 +510,31 @@ public class UserProcess {
             vpn++;
         }
 
+        // later processes running this executable start from these pages
+        if (template == null)
+            UserKernel.templates.save(coff, pageTable);
+
         //printVirtualMemoryVisualization();
         //UserKernel.freePhysicalPages.printVisualization();
 
-        UserKernel.freePhysicalPages.lock.release();
-
         return true;
     }
 
     /**
-     * Release any resources allocated by <tt>loadSections()</tt>.
+     * Release any resources allocated by <tt>loadSections()</tt>. Shared
+     * read-only pages are left to the text page cache, which frees them
+     * once no process maps them.
      */
     protected void unloadSections() {
-        UserKernel.freePhysicalPages.lock.acquire();
-
+        int[] ppns = new int[numPages];
+        int numPrivate = 0;
         for (int vpn = 0; vpn < numPages; vpn++) {
-            int ppn = pageTable[vpn].ppn;
-            UserKernel.freePhysicalPages.push(ppn);
+            if (!pageTable[vpn].readOnly)
+                ppns[numPrivate++] = pageTable[vpn].ppn;
         }
+        UserKernel.freePhysicalPages.free(ppns, 0, numPrivate);
+        UserKernel.textPages.unmap(coff);
         //UserKernel.freePhysicalPages.printVisualization();
-
-        UserKernel.freePhysicalPages.lock.release();
     }
 
     /**
@@ -537,11 +563,11 @@ public class UserProcess {
 
     /* File system calls and Halt. These are implemented for Task 1 Project 2 */
     private int handleHalt() {
-        if (this.processID != 0) {
+        if (!root) {
             return -1;
         }
-        Machine.halt();
-        Lib.assertNotReached("Machine.halt() did not halt machine!");
+        Kernel.kernel.terminate();
+        Lib.assertNotReached("Kernel.terminate() did not halt machine!");
         return 0;
     }
 
@@ -549,13 +575,14 @@ public class UserProcess {
      * Handle the handleCreat() system call.
      */
     private int handleCreat(int nameAddress) {
-        int oldDescriptorCount = openFiles.size();
-        int fileDescriptor = openFiles.size();
-        if (fileDescriptor > 15 || nameAddress < 0) {
+        if (nameAddress < 0) {
             return -1;
         }
         String fileName = readVirtualMemoryString(nameAddress, 256);
         Lib.debug(dbgProcess , "Trying to create file " + fileName);
+        if (fileName == null) {
+            return -1;
+        }
         OpenFile file = ThreadedKernel.fileSystem.open(fileName, false);
         if (file == null) {
             file = ThreadedKernel.fileSystem.open(fileName, true);
@@ -563,9 +590,11 @@ public class UserProcess {
                 return -1;
             }
         }
-        Lib.assertTrue(openFiles.put(new Integer(fileDescriptor), file) == null,
-                "ERROR: Tried to store a file descriptor where one already exists in handleCreat()");
-        Lib.assertTrue(oldDescriptorCount == (openFiles.size() - 1));
+        int fileDescriptor = openFiles.add(file);
+        if (fileDescriptor == -1) {
+            file.close();
+            return -1;
+        }
         Lib.debug(dbgProcess, "Created file " + fileName + " with descriptor " + fileDescriptor);
         return fileDescriptor;
     }
@@ -574,21 +603,24 @@ public class UserProcess {
      * Handle the handleOpen() system call.
      */
     private int handleOpen(int nameAddress) {
-        int oldDescriptorCount = openFiles.size();
-        int fileDescriptor = openFiles.size();
-        if (fileDescriptor > 15 || nameAddress < 0) {
+        if (nameAddress < 0) {
             return -1;
         }
         String fileName = readVirtualMemoryString(nameAddress, 256);
         Lib.debug(dbgProcess , "Trying to open file " + fileName);
+        if (fileName == null) {
+            return -1;
+        }
         OpenFile file = ThreadedKernel.fileSystem.open(fileName, false);
         if (file == null) {
             return -1;
         }
 
-        Lib.assertTrue(openFiles.put(new Integer(fileDescriptor), file) == null,
-                "ERROR: Tried to store a file descriptor where one already exists in handleCreat()");
-        Lib.assertTrue(oldDescriptorCount == (openFiles.size() - 1));
+        int fileDescriptor = openFiles.add(file);
+        if (fileDescriptor == -1) {
+            file.close();
+            return -1;
+        }
         Lib.debug(dbgProcess, "Opened file " + fileName + " with descriptor " + fileDescriptor);
         return fileDescriptor;
     }
@@ -601,14 +633,7 @@ public class UserProcess {
         OpenFile file = openFiles.get(fileDescriptor);
         if( file == null || count < 0)
             return -1;
-        byte[] bufferData = new byte[count];
-        int amountRead = file.read(bufferData, 0, count);
-        if (amountRead == -1 || amountRead == 0) {
-            return amountRead;
-        }
-
-        int amountWrittenToBuffer = writeVirtualMemory(bufferAddress, bufferData);
-        return amountRead;
+        return transferFile(file, bufferAddress, count, true);
     }
 
     /**
@@ -618,17 +643,185 @@ public class UserProcess {
         OpenFile file = openFiles.get(fileDescriptor);
         if( file == null || count < 0)
             return -1;
-        byte[] bufferData = new byte[count];
-        readVirtualMemory(bufferAddress, bufferData);
-        Lib.debug(dbgProcess, "PID: " +processID + " handling write data: "
-                + (new String(bufferData)) + " to descriptor " + fileDescriptor);
-        int amountWrittenToFile = file.write(bufferData, 0, count);
+        Lib.debug(dbgProcess, "PID: " +processID + " handling write of "
+                + count + " bytes to descriptor " + fileDescriptor);
+        int amountWrittenToFile = transferFile(file, bufferAddress, count, false);
+        fileWritten(file);
         if (amountWrittenToFile < count) {
             return -1;
         }
         return amountWrittenToFile;
     }
 
+    /**
+     * Handle the handleReadv() system call.
+     */
+    private int handleReadv(int fileDescriptor, int iovAddress, int count) {
+        OpenFile file = openFiles.get(fileDescriptor);
+        int[] iov = readIovecs(iovAddress, count);
+        if (file == null || iov == null)
+            return -1;
+        Lib.debug(dbgProcess, "PID: " + processID + " handling readv of "
+                + count + " buffers from descriptor " + fileDescriptor);
+
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int amount = transferFile(file, iov[2*i], iov[2*i+1], true);
+            if (amount < 0)
+                return (total == 0) ? -1 : total;
+            total += amount;
+            // a short read means the file has nothing more right now
+            if (amount < iov[2*i+1])
+                break;
+        }
+        return total;
+    }
+
+    /**
+     * Handle the handleWritev() system call.
+     */
+    private int handleWritev(int fileDescriptor, int iovAddress, int count) {
+        OpenFile file = openFiles.get(fileDescriptor);
+        int[] iov = readIovecs(iovAddress, count);
+        if (file == null || iov == null)
+            return -1;
+        Lib.debug(dbgProcess, "PID: " + processID + " handling writev of "
+                + count + " buffers to descriptor " + fileDescriptor);
+
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            if (transferFile(file, iov[2*i], iov[2*i+1], false) < iov[2*i+1]) {
+                total = -1;
+                break;
+            }
+            total += iov[2*i+1];
+        }
+        fileWritten(file);
+        return total;
+    }
+
+    /**
+     * Note that <i>file</i> has been written to, so that an executable cached
+     * from it is read again by the next <tt>exec</tt>. The console is not a
+     * file system file and is skipped.
+     */
+    private void fileWritten(OpenFile file) {
+        if (file.getFileSystem() == ThreadedKernel.fileSystem)
+            UserKernel.executables.invalidate(file.getName());
+    }
+
+    /**
+     * Read an array of <i>count</i> <tt>struct iovec</tt>s from virtual
+     * memory with a single copy.
+     *
+     * @param	vaddr	the address of the array.
+     * @param	count	the number of elements.
+     * @return	the base address and length of each buffer, alternately, or
+     *		<tt>null</tt> if the array is invalid or a length is negative.
+     */
+    private int[] readIovecs(int vaddr, int count) {
+        if (vaddr < 0 || count < 0 || count > maxIovecs)
+            return null;
+
+        byte[] data = new byte[count*iovecSize];
+        if (readVirtualMemory(vaddr, data) != data.length)
+            return null;
+
+        int[] iov = new int[count*2];
+        for (int i = 0; i < iov.length; i++) {
+            iov[i] = Lib.bytesToInt(data, i*4);
+            if (i % 2 == 1 && iov[i] < 0)
+                return null;
+        }
+        return iov;
+    }
+
+    /**
+     * Return whether <i>fileDescriptor</i> refers to a stream, such as the
+     * console, rather than to a file in the file system.
+     *
+     * @param	fileDescriptor	the file descriptor.
+     * @return	<tt>true</tt> if it is open on a stream.
+     */
+    boolean isStream(int fileDescriptor) {
+        OpenFile file = openFiles.get(fileDescriptor);
+        return file != null
+            && file.getFileSystem() != ThreadedKernel.fileSystem;
+    }
+
+    /**
+     * Move up to <i>count</i> bytes between <i>file</i> and this process's
+     * virtual memory at <i>vaddr</i>. Each page is translated through the
+     * page table, and the file reads into or writes from that page's frame
+     * in physical memory directly, so no copy of the data is made in
+     * between. Pages whose frames are physically adjacent are transferred
+     * together, in one file operation.
+     *
+     * @param	file	the file to transfer to or from.
+     * @param	vaddr	the first byte of virtual memory to transfer.
+     * @param	count	the number of bytes to transfer.
+     * @param	toMemory	<tt>true</tt> to read from the file into memory,
+     *				<tt>false</tt> to write memory to the file.
+     * @return	the number of bytes transferred, which is less than
+     *		<i>count</i> if the file or the address range ran out first,
+     *		or -1 if nothing was transferred because of an error.
+     */
+    private int transferFile(OpenFile file, int vaddr, int count,
+                             boolean toMemory) {
+        byte[] memory = Machine.processor().getMemory();
+        int transferred = 0;
+
+        while (transferred < count) {
+            int paddr = translate(vaddr + transferred, toMemory);
+            if (paddr < 0)
+                return (transferred == 0) ? -1 : transferred;
+
+            int length = Math.min(count - transferred,
+                    pageSize - Processor.offsetFromAddress(paddr));
+            // take in the following pages as long as they are physically
+            // adjacent, so the whole run is one file operation
+            while (transferred + length < count
+                    && translate(vaddr + transferred + length, toMemory)
+                        == paddr + length) {
+                length += Math.min(count - transferred - length, pageSize);
+            }
+            int amount = toMemory ? file.read(memory, paddr, length)
+                    : file.write(memory, paddr, length);
+            if (amount < 0)
+                return (transferred == 0) ? -1 : transferred;
+
+            transferred += amount;
+            if (amount < length)
+                break;
+        }
+
+        return transferred;
+    }
+
+    /**
+     * Translate a virtual address through this process's page table, marking
+     * the page used, and dirty if it is about to be written.
+     *
+     * @param	vaddr	the virtual address to translate.
+     * @param	write	<tt>true</tt> if the page will be written.
+     * @return	the physical address, or -1 if <i>vaddr</i> is not mapped or
+     *		the page is read-only and <i>write</i> is set.
+     */
+    private int translate(int vaddr, boolean write) {
+        int vpn = Processor.pageFromAddress(vaddr);
+        if (vaddr < 0 || vpn >= numPages)
+            return -1;
+
+        TranslationEntry te = pageTable[vpn];
+        if (!te.valid || (write && te.readOnly))
+            return -1;
+
+        te.used = true;
+        if (write)
+            te.dirty = true;
+        return Processor.makeAddress(te.ppn, Processor.offsetFromAddress(vaddr));
+    }
+
     /**
      * Handler for the handleUnlink exception.
      *
@@ -646,6 +839,7 @@ public class UserProcess {
         String fileName = readVirtualMemoryString(addressOfName, 256);
         if( fileName == null)
             return -1;
+        UserKernel.executables.invalidate(fileName);
         if( fs.remove(fileName) )
             return 0;
         return -1;
@@ -654,24 +848,72 @@ public class UserProcess {
     /**
      * Handler for the handleClose exception.
      *
-     * @param descriptor File descriptor integer for the open file handle. Valid range = [0, 15]
+     * @param descriptor File descriptor integer for the open file handle.
      *
      * @return 0 if file is closed successfully or -1 if there is an error.
      */
     private int handleClose(int descriptor)
     {
         Lib.debug(dbgProcess, processID + " Closing descriptor " + descriptor);
-        if(descriptor > 15 || descriptor < 0 || (openFiles.get(new Integer(descriptor))) == null)
+        if (!openFiles.close(descriptor))
             return -1;
-        OpenFile file = (OpenFile)openFiles.remove(descriptor);
-        if(file == null)
-            return -1;
-        file.close();
         Lib.debug(dbgProcess, "Close was successful for descriptor "
                 + descriptor + " Remaining open descriptors: " + openFiles.size());
         return 0;
     }
 
+    /**
+     * Handler for the handleDup syscall.
+     *
+     * @param descriptor an open file descriptor.
+     *
+     * @return the lowest free descriptor, now sharing the same open file as
+     * <i>descriptor</i>, or -1 if there is an error.
+     */
+    private int handleDup(int descriptor)
+    {
+        int copy = openFiles.dup(descriptor);
+        Lib.debug(dbgProcess, processID + " Duplicated descriptor "
+                + descriptor + " as " + copy);
+        return copy;
+    }
+
+
+    /**
+     * Handler for the handleRingSetup syscall.
+     *
+     * @param sqAddress virtual address of the submission ring.
+     * @param cqAddress virtual address of the completion ring.
+     * @param entries number of slots in each ring.
+     *
+     * @return 0 if the rings were set up, or -1 if this process already has
+     * rings or they do not fit in writable memory.
+     */
+    private int handleRingSetup(int sqAddress, int cqAddress, int entries)
+    {
+        if (ring != null
+                || !IoRing.initialize(this, sqAddress, cqAddress, entries))
+            return -1;
+        ring = new IoRing(this, sqAddress, cqAddress, entries);
+        Lib.debug(dbgProcess, processID + " Set up rings of " + entries
+                + " entries at " + sqAddress + " and " + cqAddress);
+        return 0;
+    }
+
+    /**
+     * Handler for the handleRingEnter syscall.
+     *
+     * @param minComplete number of completions to wait for.
+     *
+     * @return the number of completions waiting to be consumed, or -1 if
+     * there is an error.
+     */
+    private int handleRingEnter(int minComplete)
+    {
+        if (ring == null)
+            return -1;
+        return ring.enter(minComplete);
+    }
 
     /* End of file system calls and Task 1, Project 2 */
 
@@ -681,36 +923,18 @@ public class UserProcess {
      *  @param status : the status of this process that is passed to this
      *      process's parent. */
     private void handleExit(int status) {
-        if (this.parent != null) {
-            this.parent.childrenExitStatusTable.put(this.processID, status);
-            if (this.isJoining){
-            	this.joinLock.acquire();
-            	this.joinCondition.wake();
-            	this.joinLock.release();
-            }
-        }
-
-        /* Issue: File descriptors in use are not always contiguous.
-        for (int i=0;i<openFiles.size();i++){
-            handleClose(i);
-        } /**/
-
-        /* This is a replacement for the for loop above */
-        HashMap<Integer, OpenFile> copyMap =
-                (HashMap<Integer, OpenFile>) openFiles.clone();
-        for (Object i : copyMap.keySet()){
-            handleClose(((Integer) i).intValue());
-        }
+        // finish every file operation before the parent can see the exit
+        if (ring != null)
+            ring.close();
+        openFiles.closeAll();
+
+        // wakes the parent if it is joining, and orphans the children
+        UserKernel.processes.exit(this.processID, status, !killed);
+        syscallStats.print();
         
         this.unloadSections();
-        coff.close();
-        if (!childrenProcesses.isEmpty()) {
-            for (int i = 0; i < childrenProcesses.size(); i++) {
-                childrenProcesses.get(i).parent = null;
-            }
-            childrenProcesses.clear();
-        }
-        if (this.processID == 0){
+        UserKernel.executables.release(coff);
+        if (root) {
             Kernel.kernel.terminate();
         } else {
             KThread.finish();
@@ -729,43 +953,45 @@ public class UserProcess {
      *      0 if the child process exits due to an exception. */
     private int handleJoin(int ID, int statusVMemAddr) {
         Lib.debug(dbgProcess, "handling Join()");
-        UserProcess currentChild = null;
-        if (!(childrenProcesses.isEmpty())) {
-            for (int i = 0; i < childrenProcesses.size(); i++) {
-                if (childrenProcesses.get(i).processID == ID) {
-                    currentChild = childrenProcesses.get(i);
-                    break;
-                }
-            }
+        int[] childStatus = new int[1];
+        int result = UserKernel.processes.join(this.processID, ID,
+                childStatus);
+        if (result == -1) {
+            return -1;
         }
-        if (currentChild == null) {
+
+        byte[] statusByte = Lib.bytesFromInt(childStatus[0]);
+        int bytesWrote = writeVirtualMemory(statusVMemAddr, statusByte);
+        if (bytesWrote != 4) {
             return -1;
         }
-        this.joinLock=new Lock();
-       	this.joinCondition=new Condition2(joinLock);
-       	currentChild.joinLock=this.joinLock;
-       	currentChild.joinCondition=this.joinCondition;
-       	currentChild.isJoining=true;
-       	this.joinLock.acquire();
-       	this.joinCondition.sleep();
-       	this.joinLock.release();
-        int childStatus =
-                this.childrenExitStatusTable.get(currentChild.processID);
-        boolean hasKey=childrenExitStatusTable.containsKey(currentChild.processID);
-        this.childrenProcesses.remove(currentChild);
-        this.childrenExitStatusTable.remove(currentChild.processID);
-        currentChild.parent = null;
-
-        if (hasKey) {
-            byte[] statusByte;
-            statusByte = Lib.bytesFromInt(childStatus);
-            int bytesWrote = writeVirtualMemory(statusVMemAddr, statusByte);
-            if (bytesWrote != 4) {
-                return -1;
-            }
-            return 1;
+        return result;
+    }
+
+    /** Handles the JOINANY() system call. It sleeps/pauses this process until
+     *  any of its children has exited, and joins with that child. Children
+     *  that have already exited are joined first, in the order they exited.
+     *  @param IDVMemAddr : the virtual memory address where the parent writes
+     *      the process ID of the child it joined with.
+     *  @param statusVMemAddr : the virtual memory address where the parent
+     *      writes the status of its child exit status.
+     *  @return : -1 if the process has no children. 1 if the child process
+     *      exits normally. 0 if the child process exits due to an
+     *      exception. */
+    private int handleJoinAny(int IDVMemAddr, int statusVMemAddr) {
+        Lib.debug(dbgProcess, "handling JoinAny()");
+        int[] child = new int[2];
+        int result = UserKernel.processes.joinAny(this.processID, child);
+        if (result == -1) {
+            return -1;
         }
-        return 0;
+
+        if (writeVirtualMemory(IDVMemAddr, Lib.bytesFromInt(child[0])) != 4
+                || writeVirtualMemory(statusVMemAddr,
+                        Lib.bytesFromInt(child[1])) != 4) {
+            return -1;
+        }
+        return result;
     }
 
     /** Handles the EXEC() system call. This process initializes the child
@@ -809,18 +1035,19 @@ public class UserProcess {
                     + programArgs[i]);
         }
         UserProcess newChild = newUserProcess();
+        // the child may exit before execute() returns
+        UserKernel.processes.setParent(newChild.processID, this.processID);
         if (newChild.execute(FileToRun, programArgs)) {
-            newChild.parent = this;
-            this.childrenProcesses.add(newChild);
             Lib.debug(dbgProcess, "New process successfully forked");
             return newChild.processID;
         } else {
+            UserKernel.processes.remove(newChild.processID);
             return -1;
         }
     }
     /* End of file system calls for Task 3, Project 2 */
 
-    private static final int
+    static final int
             syscallHalt = 0,
             syscallExit = 1,
             syscallExec = 2,
@@ -830,7 +1057,13 @@ public class UserProcess {
             syscallRead = 6,
             syscallWrite = 7,
             syscallClose = 8,
-            syscallUnlink = 9;
+            syscallUnlink = 9,
+            syscallDup = 13,
+            syscallReadv = 14,
+            syscallWritev = 15,
+            syscallRingSetup = 16,
+            syscallRingEnter = 17,
+            syscallJoinAny = 18;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -851,6 +1084,15 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  dup(int fd);</tt></td></tr>
+     * <tr><td>14</td><td><tt>int  readv(int fd, struct iovec *iov, int count);
+     *								</tt></td></tr>
+     * <tr><td>15</td><td><tt>int  writev(int fd, struct iovec *iov,
+     *		int count);</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  ringSetup(struct ring *sq,
+     *		struct ring *cq, int entries);</tt></td></tr>
+     * <tr><td>17</td><td><tt>int  ringEnter(int minComplete);</tt></td></tr>
+     * <tr><td>18</td><td><tt>int  joinAny(int *pid, int *status);</tt></td></tr>
      * </table>
      *
      * @param	syscall	the syscall number.
@@ -861,6 +1103,20 @@ public class UserProcess {
      * @return	the value to be returned to the user.
      */
     public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+        if (!SyscallStats.enabled)
+            return dispatchSyscall(syscall, a0, a1, a2, a3);
+
+        long start = Machine.timer().getTime();
+        syscallStats.started(syscall);
+
+        int result = dispatchSyscall(syscall, a0, a1, a2, a3);
+
+        syscallStats.finished(syscall, Machine.timer().getTime() - start,
+                result);
+        return result;
+    }
+
+    private int dispatchSyscall(int syscall, int a0, int a1, int a2, int a3) {
         switch (syscall) {
             case syscallHalt:
                 return handleHalt();
@@ -882,6 +1138,18 @@ public class UserProcess {
                 return handleClose(a0);
             case syscallUnlink:
                 return handleUnlink(a0);
+            case syscallDup:
+                return handleDup(a0);
+            case syscallReadv:
+                return handleReadv(a0, a1, a2);
+            case syscallWritev:
+                return handleWritev(a0, a1, a2);
+            case syscallRingSetup:
+                return handleRingSetup(a0, a1, a2);
+            case syscallRingEnter:
+                return handleRingEnter(a0);
+            case syscallJoinAny:
+                return handleJoinAny(a0, a1);
             default:
                 Lib.debug(dbgProcess, "Unknown syscall " + syscall);
                 Lib.assertNotReached("Unknown system call!");
@@ -914,6 +1182,7 @@ public class UserProcess {
                 break;
 
             default:
+                killed = true;
                 handleExit(-1);
                 Lib.debug(dbgProcess, "Unexpected exception: " +
                         Processor.exceptionNames[cause]);
@@ -936,6 +1205,8 @@ public class UserProcess {
 
     /** The program being run by this process. */
     protected Coff coff;
+    /** The template this process is cloned from, or <tt>null</tt>. */
+    protected ProcessTemplates.Template template;
 
     /** This process's page table. */
     protected TranslationEntry[] pageTable;
@@ -945,6 +1216,16 @@ public class UserProcess {
     /** The number of pages in the program's stack. */
     protected final int stackPages = 8;
 
+    /** The system calls this process has made. */
+    private SyscallStats syscallStats;
+    /** This process's submission and completion rings, if it has set any up. */
+    private IoRing ring = null;
+
+    /** The size of a <tt>struct iovec</tt> in user memory. */
+    private static final int iovecSize = 8;
+    /** The most buffers one <tt>readv()</tt> or <tt>writev()</tt> may use. */
+    private static final int maxIovecs = 1024;
+
     private int initialPC, initialSP;
     private int argc, argv;
 
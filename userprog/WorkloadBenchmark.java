@@ -0,0 +1,76 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A benchmark of the kernel's scheduler on a mixed workload of user
+ * processes: processor-bound batch jobs running in the background while
+ * short interactive commands are run one after another, the way a user
+ * would type them at <tt>sh.coff</tt>. It prints how long each command took
+ * from <tt>exec</tt> to exit, and how long the batch jobs took, so that the
+ * numbers can be compared between schedulers.
+ *
+ * <p>
+ * The shell itself is not run, since it would read the console input meant
+ * for the real shell. The benchmark plays its part instead: it execs each
+ * command and joins it before starting the next.
+ */
+public class WorkloadBenchmark {
+    /**
+     * Run <tt>numBatch</tt> copies of <tt>matmult.coff</tt> alongside
+     * <tt>numCommands</tt> runs of <tt>echo.coff</tt>, and print the
+     * results.
+     */
+    public static void benchmark() {
+        final int numBatch = 2;
+        final int numCommands = 8;
+
+        // the benchmark stands in for the shell as the parent of its processes
+        int self = UserKernel.processes.add(null);
+
+        long start = Machine.timer().getTime();
+
+        int[] batch = new int[numBatch];
+        for (int i=0; i<numBatch; i++)
+            batch[i] = exec(self, "matmult.coff");
+
+        long totalTurnaround = 0, maxTurnaround = 0;
+        for (int i=0; i<numCommands; i++) {
+            long started = Machine.timer().getTime();
+            join(self, exec(self, "echo.coff"));
+            long turnaround = Machine.timer().getTime() - started;
+
+            totalTurnaround += turnaround;
+            maxTurnaround = Math.max(maxTurnaround, turnaround);
+        }
+
+        for (int i=0; i<numBatch; i++)
+            join(self, batch[i]);
+        long elapsed = Machine.timer().getTime() - start;
+
+        UserKernel.processes.exit(self, 0, true);
+
+        System.out.println("[ BENCH ] "
+                           + ThreadedKernel.scheduler.getClass().getName()
+                           + ": " + numBatch + " matmult + " + numCommands
+                           + " echo, command turnaround avg "
+                           + (totalTurnaround / numCommands) + " max "
+                           + maxTurnaround + " ticks, all done in "
+                           + elapsed + " ticks");
+    }
+
+    private static int exec(int parent, String name) {
+        UserProcess process = UserProcess.newUserProcess();
+        int processID = process.getProcessID();
+        UserKernel.processes.setParent(processID, parent);
+
+        Lib.assertTrue(process.execute(name, new String[] { name }));
+        return processID;
+    }
+
+    private static void join(int parent, int child) {
+        int[] status = new int[1];
+        Lib.assertTrue(UserKernel.processes.join(parent, child, status) == 1);
+    }
+}